@@ -0,0 +1,30 @@
+package com.github.liuyueyi.hhui.components.trace.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 压测入口，默认执行全部的压测，并通过 GCProfiler 输出每次调用的内存分配(gc.alloc.rate.norm)
+ * <p>
+ * 使用方式:
+ * - mvn -pl trace-watch-dog-benchmark -am package
+ * - java -jar trace-watch-dog-benchmark/target/benchmarks.jar [JMH参数，如 RecoderBenchmark -wi 1 -i 3]
+ *
+ * @author YiHui
+ * @date 2024/9/14
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        if (cli.getIncludes().isEmpty()) {
+            builder.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+        }
+        Options options = builder.parent(cli).addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+}
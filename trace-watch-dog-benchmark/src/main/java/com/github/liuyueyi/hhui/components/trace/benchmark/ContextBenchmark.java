@@ -0,0 +1,89 @@
+package com.github.liuyueyi.hhui.components.trace.benchmark;
+
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.async.AsyncUtil;
+import com.github.liuyueyi.hhui.components.trace.async.ExecutorMode;
+import com.github.liuyueyi.hhui.components.trace.context.ContextMode;
+import com.github.liuyueyi.hhui.components.trace.recoder.ITraceRecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 不同上下文传递方式下，获取记录器与提交异步任务的开销
+ * <p>
+ * - getRecoder: 请求线程上获取记录器
+ * - asyncHandoff: 提交一个异步任务并等待结果，任务中获取记录器，包含线程池的调度开销
+ * - SCOPED_VALUE 在 JDK 21~24 上需要追加 -jvmArgsAppend --enable-preview，不支持时与 THREAD_LOCAL 相同
+ *
+ * @author YiHui
+ * @date 2024/9/15
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ContextBenchmark {
+    private static final int RESET_INTERVAL = 1024;
+
+    @Param({"TTL", "THREAD_LOCAL", "SCOPED_VALUE"})
+    private ContextMode contextMode;
+
+    @Param({"POOL", "VIRTUAL"})
+    private ExecutorMode executorMode;
+
+    private ITraceRecoder recoder;
+    private int calls;
+    private Supplier<Long> work;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        TraceWatch.setContextMode(contextMode);
+        work = () -> TraceWatch.getRecoder() == null ? 0L : System.nanoTime();
+        recoder = newRecoder();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        recoder.close();
+        TraceWatch.setContextMode(ContextMode.TTL);
+    }
+
+    private ITraceRecoder newRecoder() {
+        return TraceWatch.startTrace(AsyncUtil.traceExecutor(executorMode), "benchmark", false);
+    }
+
+    private ITraceRecoder recoder() {
+        if (++calls == RESET_INTERVAL) {
+            calls = 0;
+            recoder.close();
+            recoder = newRecoder();
+        }
+        return recoder;
+    }
+
+    @Benchmark
+    public ITraceRecoder getRecoder() {
+        return TraceWatch.getRecoder();
+    }
+
+    @Benchmark
+    public Long asyncHandoff() {
+        return recoder().async(work, "async").join();
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.liuyueyi.hhui.components.trace.benchmark;
+
+import com.github.liuyueyi.hhui.components.trace.output.LogOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 日志输出的格式化开销
+ * <p>
+ * logback.xml 中将日志级别设置为 WARN，因此只统计字符串拼接、百分比格式化的开销，不包含日志IO
+ *
+ * @author YiHui
+ * @date 2024/9/14
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LogOutputBenchmark {
+    private static final String TRACE_NAME = "benchmark";
+
+    @Param({"5", "50"})
+    private int tasks;
+
+    private Map<String, Long> cost;
+
+    @Setup
+    public void setUp() {
+        cost = new TreeMap<>();
+        long total = 0;
+        for (int i = 0; i < tasks; i++) {
+            long c = TimeUnit.MICROSECONDS.toNanos(100 + i * 37L);
+            cost.put("task-" + i, c);
+            total += c;
+        }
+        cost.put(TRACE_NAME, total);
+    }
+
+    @Benchmark
+    public void logPrintNanos() {
+        LogOutput.logPrintNanos(cost, TRACE_NAME);
+    }
+}
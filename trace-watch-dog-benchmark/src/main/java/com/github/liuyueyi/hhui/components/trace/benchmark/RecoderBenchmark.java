@@ -0,0 +1,111 @@
+package com.github.liuyueyi.hhui.components.trace.benchmark;
+
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.async.AsyncUtil;
+import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.recoder.ITraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.recoder.SyncTraceRecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 记录器在每次调用上的额外开销
+ * <p>
+ * - baseline*: 不经过记录器，直接执行业务代码，作为对比的基准
+ * - 同一个记录器持续记录会不断累积任务，因此每 RESET_INTERVAL 次调用后重新开启一个trace，开销被均摊到每次调用上
+ *
+ * @author YiHui
+ * @date 2024/9/14
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RecoderBenchmark {
+    private static final int RESET_INTERVAL = 1024;
+
+    private DefaultTraceRecoder recoder;
+    private int calls;
+    private Supplier<Long> work;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        work = System::nanoTime;
+        recoder = newRecoder();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        recoder.close();
+    }
+
+    private DefaultTraceRecoder newRecoder() {
+        return new DefaultTraceRecoder(AsyncUtil.traceExecutor, "benchmark", false);
+    }
+
+    private DefaultTraceRecoder recoder() {
+        if (++calls == RESET_INTERVAL) {
+            calls = 0;
+            recoder.close();
+            recoder = newRecoder();
+        }
+        return recoder;
+    }
+
+    @Benchmark
+    public long baselineSync() {
+        return work.get();
+    }
+
+    @Benchmark
+    public Long defaultSync() {
+        return recoder().sync(work, "sync");
+    }
+
+    @Benchmark
+    public Long syncRecoderSync() {
+        return SyncTraceRecoder.SYNC_RECODER.sync(work, "sync");
+    }
+
+    @Benchmark
+    public Long baselineAsync() {
+        return CompletableFuture.supplyAsync(work, AsyncUtil.executorService).join();
+    }
+
+    @Benchmark
+    public Long defaultAsync() {
+        return recoder().async(work, "async").join();
+    }
+
+    @Benchmark
+    public ITraceRecoder getRecoderOrElseSync() {
+        return TraceWatch.getRecoderOrElseSync();
+    }
+
+    /**
+     * 一个请求完整的生命周期：开启trace，记录一个同步任务，结束并输出（日志输出关闭）
+     */
+    @Benchmark
+    public void startTraceAndClose(Blackhole bh) {
+        try (ITraceRecoder trace = TraceWatch.startTrace("benchmark", false)) {
+            bh.consume(trace.sync(work, "sync"));
+        }
+    }
+}
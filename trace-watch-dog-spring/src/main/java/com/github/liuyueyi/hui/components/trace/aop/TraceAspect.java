@@ -92,7 +92,7 @@ public class TraceAspect implements ApplicationContextAware {
     }
 
     private String genTraceName(MethodSignature methodSignature, TraceDog traceDog) {
-        if (traceDog.value() == null || traceDog.value().isEmpty()) {
+        if (traceDog.value() != null && !traceDog.value().isEmpty()) {
             return traceDog.value();
         }
 
@@ -109,7 +109,8 @@ public class TraceAspect implements ApplicationContextAware {
 
     private Object executeWithFuture(ProceedingJoinPoint joinPoint) {
         try {
-            return ((CompletableFuture) joinPoint.proceed()).join();
+            // CompletableFuture#join 在 ForkJoinPool 中等待时，线程池会补偿被阻塞的工作线程，避免嵌套的异步调用耗尽线程
+            return ((CompletableFuture<?>) joinPoint.proceed()).join();
         } catch (Throwable e) {
             throw new RuntimeException(e);
         }
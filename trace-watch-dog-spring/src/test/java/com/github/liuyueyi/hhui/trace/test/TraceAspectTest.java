@@ -0,0 +1,54 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
+import com.github.liuyueyi.hui.components.trace.aop.Propagation;
+import com.github.liuyueyi.hui.components.trace.aop.TraceAspect;
+import com.github.liuyueyi.hui.components.trace.aop.TraceDog;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+/**
+ * TraceDog 注解的trace命名
+ * <p>
+ * 本模块的 surefire 使用 JUnit Platform 执行(spring-boot-starter-test 引入)，因此这里使用 JUnit 5
+ *
+ * @author YiHui
+ * @date 2024/9/14
+ */
+public class TraceAspectTest {
+
+    public static class DemoService {
+        @TraceDog(value = "explicit", propagation = Propagation.REQUIRED, logEnable = false)
+        public String named() {
+            return currentTraceName();
+        }
+
+        @TraceDog(propagation = Propagation.REQUIRED, logEnable = false)
+        public String unnamed() {
+            return currentTraceName();
+        }
+
+        private String currentTraceName() {
+            return ((DefaultTraceRecoder) TraceWatch.getRecoder()).snapshot().getTraceName();
+        }
+    }
+
+    private DemoService proxy() {
+        AspectJProxyFactory factory = new AspectJProxyFactory(new DemoService());
+        factory.setProxyTargetClass(true);
+        factory.addAspect(new TraceAspect());
+        return factory.getProxy();
+    }
+
+    @Test
+    public void testExplicitValue() {
+        Assertions.assertEquals("explicit", proxy().named());
+    }
+
+    @Test
+    public void testEmptyValue() {
+        Assertions.assertEquals(DemoService.class.getName() + "#unnamed", proxy().unnamed());
+    }
+}
@@ -1,16 +1,31 @@
 package com.github.liuyueyi.hhui.components.trace;
 
-import com.alibaba.ttl.TransmittableThreadLocal;
 import com.github.liuyueyi.hhui.components.trace.async.AsyncUtil;
+import com.github.liuyueyi.hhui.components.trace.async.ExecutorMode;
+import com.github.liuyueyi.hhui.components.trace.async.TraceExecutor;
+import com.github.liuyueyi.hhui.components.trace.clock.SystemTraceClock;
+import com.github.liuyueyi.hhui.components.trace.clock.TraceClock;
+import com.github.liuyueyi.hhui.components.trace.context.ContextMode;
+import com.github.liuyueyi.hhui.components.trace.context.TraceContext;
+import com.github.liuyueyi.hhui.components.trace.output.AsyncOutputDispatcher;
 import com.github.liuyueyi.hhui.components.trace.output.CostOutput;
 import com.github.liuyueyi.hhui.components.trace.output.LogOutput;
+import com.github.liuyueyi.hhui.components.trace.output.StatisticsOutput;
 import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
 import com.github.liuyueyi.hhui.components.trace.recoder.ITraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.recoder.ScopedTraceRecoder;
 import com.github.liuyueyi.hhui.components.trace.recoder.SyncTraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.sample.TraceSampler;
+import com.github.liuyueyi.hhui.components.trace.stat.TraceStatistics;
 
-import java.util.HashSet;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 执行链路观察工具类
@@ -20,15 +35,74 @@ import java.util.concurrent.ExecutorService;
  */
 public class TraceWatch {
 
-    private static final TransmittableThreadLocal<ITraceRecoder> THREAD_LOCAL = new TransmittableThreadLocal<>();
+    /**
+     * 记录器的上下文传递方式
+     */
+    private static volatile ContextMode contextMode = ContextMode.TTL;
+
+    private static volatile TraceContext context = TraceContext.of(ContextMode.TTL);
 
     /**
      * 全局的重定向策略
      */
     private static Set<CostOutput> globalOutputStrategy;
 
+    /**
+     * 全局的计时时钟
+     */
+    private static volatile TraceClock clock = SystemTraceClock.INSTANCE;
+
+    /**
+     * 是否回收复用记录器
+     */
+    private static volatile boolean recoderRecycle = false;
+
+    /**
+     * 采样策略，默认全部记录
+     */
+    private static volatile TraceSampler sampler = TraceSampler.ALWAYS;
+
+    /**
+     * 异步输出调度器，为null时在请求线程中直接输出
+     */
+    private static volatile AsyncOutputDispatcher outputDispatcher;
+
+    /**
+     * 异步任务的默认执行模式
+     */
+    private static volatile ExecutorMode executorMode = ExecutorMode.POOL;
+
+    /**
+     * 慢trace的阈值，纳秒，小于等于0表示不限制
+     */
+    private static volatile long slowThreshold = 0;
+
+    /**
+     * 任务的耗时预算，纳秒
+     */
+    private static final Map<String, Long> taskBudgets = new ConcurrentHashMap<>();
+    private static final Map<String, Long> taskBudgetsView = Collections.unmodifiableMap(taskBudgets);
+
+    /**
+     * 直接传入线程池开启trace时，缓存每个线程池对应的句柄，避免每个请求都重新包装线程池、创建 NoopTraceRecoder
+     * <p>
+     * 线程池没有覆写 equals/hashCode，这里等价于按实例区分
+     */
+    private static final Map<ExecutorService, TraceExecutor> executorHandles = new ConcurrentHashMap<>();
+
+    /**
+     * 统计输出是否由 enableJmx 添加，关闭时只移除自己添加的
+     */
+    private static boolean jmxStatisticsOutput;
+
+    /**
+     * 等待异步任务执行完毕的默认超时时间，为null时一直等待
+     */
+    private static volatile Duration defaultTimeout;
+
     static {
-        globalOutputStrategy = new HashSet<>();
+        // 每次trace结束都会遍历，注册只发生在启动阶段
+        globalOutputStrategy = new CopyOnWriteArraySet<>();
         globalOutputStrategy.add(LogOutput.defaultLogOutput);
     }
 
@@ -50,12 +124,224 @@ public class TraceWatch {
         return globalOutputStrategy;
     }
 
+    /**
+     * 注册全局的计时时钟，如热点链路可以使用 CachedTraceClock，测试场景可以使用 FakeTraceClock
+     *
+     * @param traceClock
+     */
+    public static void registerClock(TraceClock traceClock) {
+        clock = traceClock == null ? SystemTraceClock.INSTANCE : traceClock;
+    }
+
+    public static TraceClock getClock() {
+        return clock;
+    }
+
+    /**
+     * 开启记录器的回收复用，trace结束之后，记录器会被清空并放回当前线程，下一次 startTrace 时直接复用
+     * 开启之后，请不要在 close() 之后继续使用之前拿到的记录器
+     *
+     * @param recycle true 表示开启
+     */
+    public static void enableRecoderRecycle(boolean recycle) {
+        recoderRecycle = recycle;
+    }
+
+    public static boolean isRecoderRecycle() {
+        return recoderRecycle;
+    }
+
+    /**
+     * 注册采样策略，未被采样的请求，startTrace 返回共用的 NoopTraceRecoder，不记录耗时也不输出日志
+     *
+     * @param traceSampler 如 DefaultTraceSampler
+     */
+    public static void registerSampler(TraceSampler traceSampler) {
+        sampler = traceSampler == null ? TraceSampler.ALWAYS : traceSampler;
+    }
+
+    public static TraceSampler getSampler() {
+        return sampler;
+    }
+
+    /**
+     * 开启之后，startTrace 默认使用虚拟线程执行异步任务(要求 JDK 21+，不支持时依然使用默认线程池)
+     * 指定了线程池的 startTrace 不受影响
+     *
+     * @param enable true 表示开启
+     */
+    public static void enableVirtualThread(boolean enable) {
+        executorMode = enable ? ExecutorMode.VIRTUAL : ExecutorMode.POOL;
+    }
+
+    public static boolean isVirtualThread() {
+        return executorMode == ExecutorMode.VIRTUAL;
+    }
+
+    /**
+     * 设置 startTrace 默认使用的执行模式，如递归的异步调用较多时，可以使用 FORK_JOIN
+     * 指定了线程池的 startTrace 不受影响
+     *
+     * @param mode 执行模式
+     */
+    public static void setExecutorMode(ExecutorMode mode) {
+        executorMode = mode == null ? ExecutorMode.POOL : mode;
+    }
+
+    public static ExecutorMode getExecutorMode() {
+        return executorMode;
+    }
+
+    /**
+     * 设置记录器的上下文传递方式，默认为 TTL
+     * - THREAD_LOCAL/SCOPED_VALUE: 线程池不再使用 TTL 包装，异步任务只传递记录器与traceId，业务自定义的 TTL 不会再透传
+     * - 请在应用启动、开启任何trace之前设置，切换之前开启的trace在新的上下文中不可见
+     *
+     * @param mode 传递方式，SCOPED_VALUE 不支持时使用 THREAD_LOCAL
+     */
+    public static void setContextMode(ContextMode mode) {
+        mode = mode == null ? ContextMode.TTL : mode;
+        context = TraceContext.of(mode);
+        contextMode = mode;
+    }
+
+    public static ContextMode getContextMode() {
+        return contextMode;
+    }
+
+    public static TraceContext getContext() {
+        return context;
+    }
+
+    /**
+     * 设置全局的慢trace阈值，配置之后只有总耗时超过阈值(或者有任务超过耗时预算)的trace才会输出日志
+     * 判断在生成日志内容之前进行，未超过阈值的trace没有格式化的开销；日志以外的输出不受影响
+     *
+     * @param threshold 阈值，null 表示不限制
+     */
+    public static void setSlowThreshold(Duration threshold) {
+        slowThreshold = threshold == null ? 0 : threshold.toNanos();
+    }
+
+    /**
+     * @return 慢trace的阈值，纳秒，0表示不限制
+     */
+    public static long getSlowThreshold() {
+        return slowThreshold;
+    }
+
+    /**
+     * 设置任务的耗时预算，任一任务超过预算时，输出整个trace的日志
+     *
+     * @param task   任务名，异步任务不需要带上 (异步) 后缀
+     * @param budget 耗时预算，null 表示移除
+     */
+    public static void setTaskBudget(String task, Duration budget) {
+        if (budget == null) {
+            taskBudgets.remove(task);
+        } else {
+            taskBudgets.put(task, budget.toNanos());
+        }
+    }
+
+    /**
+     * @return 任务名 -> 耗时预算(纳秒)
+     */
+    public static Map<String, Long> getTaskBudgets() {
+        return taskBudgetsView;
+    }
+
+    /**
+     * 开启跨请求的耗时统计，并为每个trace名注册 MBean，可以通过 jconsole 等工具查看耗时分布、线程池饱和情况
+     *
+     * @param enable true 表示开启，false 时注销 MBean，并移除由开启时添加的统计输出(使用方自行注册的统计输出保留)
+     */
+    public static synchronized void enableJmx(boolean enable) {
+        if (enable) {
+            if (!globalOutputStrategy.contains(StatisticsOutput.INSTANCE)) {
+                registerOutput(StatisticsOutput.INSTANCE);
+                jmxStatisticsOutput = true;
+            }
+        } else if (jmxStatisticsOutput) {
+            globalOutputStrategy.remove(StatisticsOutput.INSTANCE);
+            jmxStatisticsOutput = false;
+        }
+        TraceStatistics.enableJmx(enable);
+    }
+
+    /**
+     * 设置等待异步任务执行完毕的默认超时时间，超时之后直接返回，未执行完毕的任务标记为超时
+     * 单个trace可以通过 DefaultTraceRecoder#setTimeout 覆盖
+     *
+     * @param timeout 超时时间，null 表示一直等待
+     */
+    public static void setDefaultTimeout(Duration timeout) {
+        defaultTimeout = timeout;
+    }
+
+    public static Duration getDefaultTimeout() {
+        return defaultTimeout;
+    }
+
+    /**
+     * 开启异步输出，trace结束之后的快照放入有界的环形队列，由后台线程执行输出，请求耗时中不再包含输出的开销
+     *
+     * @param capacity 队列容量
+     * @param policy   队列满时的处理策略，丢弃 or 阻塞
+     */
+    public static synchronized void enableAsyncOutput(int capacity, AsyncOutputDispatcher.OverflowPolicy policy) {
+        AsyncOutputDispatcher old = outputDispatcher;
+        outputDispatcher = new AsyncOutputDispatcher(capacity, policy);
+        if (old != null) {
+            old.shutdown(1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 关闭异步输出，已经提交的快照会先输出完毕
+     */
+    public static synchronized void disableAsyncOutput() {
+        AsyncOutputDispatcher old = outputDispatcher;
+        outputDispatcher = null;
+        if (old != null) {
+            old.shutdown(1, TimeUnit.SECONDS);
+        }
+    }
+
+    public static AsyncOutputDispatcher getOutputDispatcher() {
+        return outputDispatcher;
+    }
+
     public static ITraceRecoder startTrace(String name) {
         return startTrace(name, true);
     }
 
     public static ITraceRecoder startTrace(String name, boolean logEnable) {
-        return startTrace(AsyncUtil.executorService, name, logEnable);
+        return startTrace(AsyncUtil.traceExecutor(executorMode), name, logEnable);
+    }
+
+    /**
+     * 开启trace
+     *
+     * @param name          trace名
+     * @param logEnable     是否输出日志
+     * @param virtualThread true 表示异步任务使用虚拟线程执行(要求 JDK 21+)
+     * @return
+     */
+    public static ITraceRecoder startTrace(String name, boolean logEnable, boolean virtualThread) {
+        return startTrace(virtualThread ? AsyncUtil.virtualTraceExecutor() : AsyncUtil.traceExecutor, name, logEnable);
+    }
+
+    /**
+     * 开启trace
+     *
+     * @param name      trace名
+     * @param logEnable 是否输出日志
+     * @param mode      异步任务的执行模式
+     * @return
+     */
+    public static ITraceRecoder startTrace(String name, boolean logEnable, ExecutorMode mode) {
+        return startTrace(AsyncUtil.traceExecutor(mode), name, logEnable);
     }
 
     /**
@@ -66,8 +352,69 @@ public class TraceWatch {
      * @return
      */
     public static ITraceRecoder startTrace(ExecutorService executorService, String name, boolean logEnable) {
-        DefaultTraceRecoder bridge = new DefaultTraceRecoder(executorService, name, logEnable).setEndHook(TraceWatch::endTrace);
-        THREAD_LOCAL.set(bridge);
+        return startTrace(traceExecutor(executorService), name, logEnable);
+    }
+
+    private static TraceExecutor traceExecutor(ExecutorService executorService) {
+        if (executorService == null) {
+            return TraceExecutor.of(null);
+        }
+        TraceExecutor executor = executorHandles.get(executorService);
+        if (executor == null) {
+            // 新的线程池加入时，顺带清理已经关闭的线程池，避免临时创建的线程池一直被缓存
+            executorHandles.keySet().removeIf(ExecutorService::isShutdown);
+            executor = executorHandles.computeIfAbsent(executorService, TraceExecutor::of);
+        }
+        return executor;
+    }
+
+    /**
+     * 开始trace记录
+     *
+     * @param executor 已包装好的线程池句柄，建议在启动时创建之后复用
+     * @param name     任务名
+     * @return
+     */
+    public static ITraceRecoder startTrace(TraceExecutor executor, String name, boolean logEnable) {
+        if (!sampler.sample(name)) {
+            // 未被采样，依然放入上下文中，避免链路中的后续节点重复开启trace
+            ITraceRecoder noop = executor.getNoopRecoder();
+            context.set(noop);
+            return noop;
+        }
+        DefaultTraceRecoder bridge = DefaultTraceRecoder.obtain(executor, name, logEnable).setEndHook(TraceWatch::endTrace);
+        context.set(bridge);
+        return bridge;
+    }
+
+    /**
+     * 开始一个结构化并发的trace，异步任务失败时取消其他任务，trace结束时不会遗留仍在执行的任务
+     *
+     * @param name      任务名
+     * @param logEnable 是否输出日志
+     * @return
+     */
+    public static ITraceRecoder startScopedTrace(String name, boolean logEnable) {
+        return startScopedTrace(AsyncUtil.traceExecutor, name, logEnable);
+    }
+
+    /**
+     * 开始一个结构化并发的trace
+     *
+     * @param executor  已包装好的线程池句柄
+     * @param name      任务名
+     * @param logEnable 是否输出日志
+     * @return
+     */
+    public static ITraceRecoder startScopedTrace(TraceExecutor executor, String name, boolean logEnable) {
+        if (!sampler.sample(name)) {
+            ITraceRecoder noop = executor.getNoopRecoder();
+            context.set(noop);
+            return noop;
+        }
+        ScopedTraceRecoder bridge = new ScopedTraceRecoder(executor, name, logEnable);
+        bridge.setEndHook(TraceWatch::endTrace);
+        context.set(bridge);
         return bridge;
     }
 
@@ -77,7 +424,7 @@ public class TraceWatch {
      * @return
      */
     public static ITraceRecoder getRecoder() {
-        return THREAD_LOCAL.get();
+        return context.get();
     }
 
     /**
@@ -98,6 +445,6 @@ public class TraceWatch {
     }
 
     public static void endTrace() {
-        THREAD_LOCAL.remove();
+        context.remove();
     }
 }
@@ -1,7 +1,10 @@
 package com.github.liuyueyi.hhui.components.trace.async;
 
 import com.alibaba.ttl.threadpool.TtlExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -12,10 +15,18 @@ import java.util.concurrent.atomic.AtomicInteger;
  * @date 2024/8/11
  */
 public class AsyncUtil {
+    private static final Logger log = LoggerFactory.getLogger(AsyncUtil.class);
+
     public static ExecutorService executorService;
 
+    /**
+     * 默认线程池对应的句柄，开启trace时直接使用，不再重复包装
+     */
+    public static TraceExecutor traceExecutor;
+
     static {
         executorService = initExecutorService(Runtime.getRuntime().availableProcessors() * 2, 50);
+        traceExecutor = TraceExecutor.of(executorService);
     }
 
 
@@ -36,9 +47,128 @@ public class AsyncUtil {
                 return thread;
             }
         };
-        ExecutorService executorService = new ThreadPoolExecutor(core, max, 0L, TimeUnit.MILLISECONDS, new SynchronousQueue<Runnable>(), THREAD_FACTORY, new ThreadPoolExecutor.CallerRunsPolicy());
+        // 带运行指标的线程池，可以通过 getExecutorMetrics 查看线程池是否饱和
+        ExecutorService executorService = new InstrumentedThreadPoolExecutor(core, max, 0L, TimeUnit.MILLISECONDS, new SynchronousQueue<Runnable>(), THREAD_FACTORY, new ThreadPoolExecutor.CallerRunsPolicy());
         // 包装一下线程池，避免出现上下文复用场景
         return TtlExecutors.getTtlExecutorService(executorService);
     }
 
+    /**
+     * @return 默认线程池的运行指标
+     */
+    public static ExecutorMetrics getExecutorMetrics() {
+        return getExecutorMetrics(executorService);
+    }
+
+    /**
+     * 获取线程池的运行指标
+     *
+     * @param executorService 线程池，可以是 TTL 包装之后的
+     * @return 运行指标，非 InstrumentedThreadPoolExecutor 时返回 null
+     */
+    public static ExecutorMetrics getExecutorMetrics(ExecutorService executorService) {
+        ExecutorService origin = TtlExecutors.unwrap(executorService);
+        if (origin instanceof InstrumentedThreadPoolExecutor) {
+            return ((InstrumentedThreadPoolExecutor) origin).getMetrics();
+        }
+        return null;
+    }
+
+    /**
+     * 构建 ForkJoinPool，异步任务中等待其他异步任务(CompletableFuture#join)时，线程池会补偿被阻塞的工作线程
+     *
+     * @param parallelism 并行度
+     * @return TTL 包装之后的线程池
+     */
+    public static ExecutorService initForkJoinPool(int parallelism) {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        ForkJoinPool.ForkJoinWorkerThreadFactory factory = pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setDaemon(true);
+            thread.setName("trace-watch-dog-fj-" + threadNumber.getAndIncrement());
+            return thread;
+        };
+        // asyncMode: 提交的任务之间没有 fork/join 关系，按照先进先出的顺序调度
+        return TtlExecutors.getTtlExecutorService(new ForkJoinPool(parallelism, factory, null, true));
+    }
+
+    /**
+     * ForkJoinPool 对应的句柄，首次使用时才创建，并行度与默认线程池的核心线程数一致
+     *
+     * @return 线程池句柄
+     */
+    public static TraceExecutor forkJoinTraceExecutor() {
+        return ForkJoinHolder.traceExecutor;
+    }
+
+    /**
+     * 根据执行模式获取线程池句柄
+     *
+     * @param mode 执行模式
+     * @return 线程池句柄
+     */
+    public static TraceExecutor traceExecutor(ExecutorMode mode) {
+        if (mode == ExecutorMode.VIRTUAL) {
+            return virtualTraceExecutor();
+        } else if (mode == ExecutorMode.FORK_JOIN) {
+            return forkJoinTraceExecutor();
+        }
+        return traceExecutor;
+    }
+
+    /**
+     * 每个任务一个虚拟线程的线程池，要求 JDK 21+
+     * 阻塞型的异步任务不再受平台线程数的限制，也不会因为线程池满而退化到请求线程中同步执行
+     *
+     * @return 虚拟线程池，当前JDK不支持时返回 null
+     */
+    public static ExecutorService initVirtualExecutorService() {
+        ExecutorService executorService;
+        try {
+            // 编译目标为 JDK 8，因此通过反射创建
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            executorService = (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+        // 与平台线程池保持一致，使用TTL包装传递上下文
+        return TtlExecutors.getTtlExecutorService(executorService);
+    }
+
+    /**
+     * @return true 表示当前JDK支持虚拟线程
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VirtualHolder.traceExecutor != null;
+    }
+
+    /**
+     * 虚拟线程池对应的句柄，首次使用时才创建；当前JDK不支持虚拟线程时，返回默认线程池的句柄
+     *
+     * @return 线程池句柄
+     */
+    public static TraceExecutor virtualTraceExecutor() {
+        TraceExecutor executor = VirtualHolder.traceExecutor;
+        return executor == null ? traceExecutor : executor;
+    }
+
+    private static class ForkJoinHolder {
+        private static final TraceExecutor traceExecutor =
+                TraceExecutor.of(initForkJoinPool(Runtime.getRuntime().availableProcessors() * 2));
+    }
+
+    private static class VirtualHolder {
+        private static final TraceExecutor traceExecutor;
+
+        static {
+            ExecutorService executorService = initVirtualExecutorService();
+            if (executorService == null) {
+                log.warn("virtual thread is not supported in java {}, use the default thread pool instead", System.getProperty("java.version"));
+                traceExecutor = null;
+            } else {
+                traceExecutor = TraceExecutor.of(executorService);
+            }
+        }
+    }
+
 }
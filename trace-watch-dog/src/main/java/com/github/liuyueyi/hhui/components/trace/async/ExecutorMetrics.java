@@ -0,0 +1,110 @@
+package com.github.liuyueyi.hhui.components.trace.async;
+
+/**
+ * 线程池的运行指标快照
+ *
+ * @author YiHui
+ * @date 2024/9/11
+ */
+public class ExecutorMetrics {
+    /**
+     * 当前线程数
+     */
+    private final int poolSize;
+    /**
+     * 正在执行任务的线程数
+     */
+    private final long activeCount;
+    /**
+     * 历史最大线程数
+     */
+    private final int largestPoolSize;
+    /**
+     * 队列中等待的任务数
+     */
+    private final int queueSize;
+    /**
+     * 提交的任务数
+     */
+    private final long submittedCount;
+    /**
+     * 线程池中执行完毕的任务数
+     */
+    private final long completedCount;
+    /**
+     * 执行异常的任务数
+     */
+    private final long failedCount;
+    /**
+     * 被拒绝的任务数
+     */
+    private final long rejectedCount;
+    /**
+     * 被拒绝之后，退化到提交线程中执行的任务数
+     */
+    private final long callerRunsCount;
+
+    public ExecutorMetrics(int poolSize, long activeCount, int largestPoolSize, int queueSize, long submittedCount,
+                           long completedCount, long failedCount, long rejectedCount, long callerRunsCount) {
+        this.poolSize = poolSize;
+        this.activeCount = activeCount;
+        this.largestPoolSize = largestPoolSize;
+        this.queueSize = queueSize;
+        this.submittedCount = submittedCount;
+        this.completedCount = completedCount;
+        this.failedCount = failedCount;
+        this.rejectedCount = rejectedCount;
+        this.callerRunsCount = callerRunsCount;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public long getActiveCount() {
+        return activeCount;
+    }
+
+    public int getLargestPoolSize() {
+        return largestPoolSize;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public long getSubmittedCount() {
+        return submittedCount;
+    }
+
+    public long getCompletedCount() {
+        return completedCount;
+    }
+
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public long getCallerRunsCount() {
+        return callerRunsCount;
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutorMetrics{" +
+                "poolSize=" + poolSize +
+                ", activeCount=" + activeCount +
+                ", largestPoolSize=" + largestPoolSize +
+                ", queueSize=" + queueSize +
+                ", submittedCount=" + submittedCount +
+                ", completedCount=" + completedCount +
+                ", failedCount=" + failedCount +
+                ", rejectedCount=" + rejectedCount +
+                ", callerRunsCount=" + callerRunsCount +
+                '}';
+    }
+}
@@ -0,0 +1,23 @@
+package com.github.liuyueyi.hhui.components.trace.async;
+
+/**
+ * 异步任务的执行模式
+ *
+ * @author YiHui
+ * @date 2024/9/11
+ */
+public enum ExecutorMode {
+    /**
+     * 默认的平台线程池，线程池满时退化为在提交线程中执行
+     */
+    POOL,
+    /**
+     * 每个任务一个虚拟线程，要求 JDK 21+，不支持时使用默认线程池
+     */
+    VIRTUAL,
+    /**
+     * ForkJoinPool，异步任务中等待其他异步任务时，线程池会补偿被阻塞的线程，适用于递归的异步调用
+     */
+    FORK_JOIN,
+    ;
+}
@@ -0,0 +1,154 @@
+package com.github.liuyueyi.hhui.components.trace.async;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 带运行指标的线程池
+ * <p>
+ * 计数器都使用 LongAdder，任务提交/执行的热路径上不会引入额外的竞争；ThreadPoolExecutor 自带的 getActiveCount、getPoolSize 等方法需要获取全局锁，不适合高频采集，
+ * 因此线程数也通过包装 ThreadFactory 自行统计，getMetrics() 全程不加锁
+ *
+ * @author YiHui
+ * @date 2024/9/11
+ */
+public class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor {
+    /**
+     * 提交的任务数
+     */
+    private final LongAdder submitted = new LongAdder();
+    /**
+     * 正在执行的任务数
+     */
+    private final LongAdder active = new LongAdder();
+    /**
+     * 线程池中执行完毕的任务数(含执行异常)
+     */
+    private final LongAdder completed = new LongAdder();
+    /**
+     * 执行异常的任务数
+     */
+    private final LongAdder failed = new LongAdder();
+    /**
+     * 线程池满，被拒绝策略处理的任务数
+     */
+    private final LongAdder rejected = new LongAdder();
+    /**
+     * 线程池满，退化到提交线程中执行的任务数
+     */
+    private final LongAdder callerRuns = new LongAdder();
+    /**
+     * 当前的线程数
+     */
+    private final LongAdder poolSize = new LongAdder();
+    /**
+     * 历史最大的线程数
+     */
+    private final LongAccumulator largestPoolSize = new LongAccumulator(Math::max, 0);
+
+    public InstrumentedThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                                          BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory,
+                                          RejectedExecutionHandler handler) {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+        // 拒绝策略在父类构造中就需要，计数器此时还未初始化，因此在这里再包装一次
+        super.setRejectedExecutionHandler(new CountingHandler(handler));
+        super.setThreadFactory(new CountingThreadFactory(threadFactory));
+    }
+
+    /**
+     * 工作线程通过 getThreadFactory() 创建，因此不能像拒绝策略一样在 get 时返回原始的 ThreadFactory
+     */
+    @Override
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        super.setThreadFactory(new CountingThreadFactory(threadFactory));
+    }
+
+    @Override
+    public void setRejectedExecutionHandler(RejectedExecutionHandler handler) {
+        super.setRejectedExecutionHandler(new CountingHandler(handler));
+    }
+
+    @Override
+    public RejectedExecutionHandler getRejectedExecutionHandler() {
+        RejectedExecutionHandler handler = super.getRejectedExecutionHandler();
+        return handler instanceof CountingHandler ? ((CountingHandler) handler).delegate : handler;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        submitted.increment();
+        super.execute(command);
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        active.increment();
+        super.beforeExecute(t, r);
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        super.afterExecute(r, t);
+        active.decrement();
+        completed.increment();
+        if (t != null) {
+            failed.increment();
+        }
+    }
+
+    /**
+     * @return 当前的运行指标
+     */
+    public ExecutorMetrics getMetrics() {
+        return new ExecutorMetrics((int) poolSize.sum(), active.sum(), (int) largestPoolSize.get(), getQueue().size(),
+                submitted.sum(), completed.sum(), failed.sum(), rejected.sum(), callerRuns.sum());
+    }
+
+    /**
+     * 工作线程开始运行时计数，退出时扣减；线程创建之后启动失败的不会计入
+     */
+    private class CountingThreadFactory implements ThreadFactory {
+        private final ThreadFactory delegate;
+
+        CountingThreadFactory(ThreadFactory delegate) {
+            this.delegate = delegate instanceof CountingThreadFactory ? ((CountingThreadFactory) delegate).delegate : delegate;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return delegate.newThread(() -> {
+                poolSize.increment();
+                largestPoolSize.accumulate(poolSize.sum());
+                try {
+                    r.run();
+                } finally {
+                    poolSize.decrement();
+                }
+            });
+        }
+    }
+
+    private class CountingHandler implements RejectedExecutionHandler {
+        private final RejectedExecutionHandler delegate;
+        private final boolean callerRunsPolicy;
+
+        CountingHandler(RejectedExecutionHandler delegate) {
+            this.delegate = delegate instanceof CountingHandler ? ((CountingHandler) delegate).delegate : delegate;
+            this.callerRunsPolicy = this.delegate instanceof CallerRunsPolicy;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            rejected.increment();
+            if (callerRunsPolicy && !executor.isShutdown()) {
+                callerRuns.increment();
+            }
+            delegate.rejectedExecution(r, executor);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.liuyueyi.hhui.components.trace.async;
+
+import com.alibaba.ttl.threadpool.TtlExecutors;
+import com.github.liuyueyi.hhui.components.trace.context.TraceContext;
+import com.github.liuyueyi.hhui.components.trace.recoder.NoopTraceRecoder;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 已经完成上下文包装的线程池句柄
+ * <p>
+ * 在应用启动时创建一次，之后每次开启trace都直接复用，避免每个请求都去判断/包装一次线程池
+ *
+ * @author YiHui
+ * @date 2024/9/8
+ */
+public final class TraceExecutor {
+
+    private final ExecutorService executorService;
+
+    /**
+     * TTL 包装之前的原始线程池，由记录器显式传递上下文时使用
+     */
+    private final ExecutorService originExecutorService;
+
+    /**
+     * 未采样请求共用的记录器
+     */
+    private final NoopTraceRecoder noopRecoder;
+
+    private TraceExecutor(ExecutorService executorService) {
+        this.executorService = executorService;
+        this.originExecutorService = TtlExecutors.unwrap(executorService);
+        this.noopRecoder = new NoopTraceRecoder(executorService);
+    }
+
+    /**
+     * 包装线程池，已经是 TTL 包装过的线程池不会重复包装
+     *
+     * @param executorService 线程池
+     * @return 句柄
+     */
+    public static TraceExecutor of(ExecutorService executorService) {
+        if (executorService == null) {
+            throw new IllegalArgumentException("executorService can not be null");
+        }
+        return new TraceExecutor(TtlExecutors.getTtlExecutorService(executorService));
+    }
+
+    /**
+     * @return 可以直接提交任务的线程池，已完成上下文透传的包装
+     */
+    public ExecutorService getExecutorService() {
+        return executorService;
+    }
+
+    /**
+     * @return TTL 包装之前的原始线程池
+     */
+    public ExecutorService getOriginExecutorService() {
+        return originExecutorService;
+    }
+
+    /**
+     * 根据上下文的传递方式选择线程池，不依赖 TTL 时直接使用原始线程池，省去每个任务的捕获/回放
+     *
+     * @param context 上下文
+     * @return 提交任务使用的线程池
+     */
+    public ExecutorService getExecutorService(TraceContext context) {
+        return context.isTransmittable() ? executorService : originExecutorService;
+    }
+
+    /**
+     * @return 未被采样的请求使用的记录器，异步任务依然提交到这个线程池
+     */
+    public NoopTraceRecoder getNoopRecoder() {
+        return noopRecoder;
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.liuyueyi.hhui.components.trace.clock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 缓存时钟，由一个后台线程定时刷新时间，读取时只是一次 volatile 读
+ * <p>
+ * 适用于调用非常频繁的热点链路，代价是精度降低为刷新间隔
+ *
+ * @author YiHui
+ * @date 2024/9/1
+ */
+public class CachedTraceClock implements TraceClock {
+    /**
+     * 缓存的时间
+     */
+    private volatile long now;
+
+    /**
+     * 刷新间隔，纳秒
+     */
+    private final long tickNanos;
+
+    private volatile boolean running;
+
+    public CachedTraceClock() {
+        this(1, TimeUnit.MILLISECONDS);
+    }
+
+    public CachedTraceClock(long tick, TimeUnit unit) {
+        this.tickNanos = Math.max(1, unit.toNanos(tick));
+        this.now = System.nanoTime();
+        this.running = true;
+        Thread thread = new Thread(this::refresh, "trace-watch-dog-clock");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void refresh() {
+        while (running) {
+            LockSupport.parkNanos(tickNanos);
+            now = System.nanoTime();
+        }
+    }
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+
+    /**
+     * 停止后台刷新线程，之后返回的时间将不再变化
+     */
+    public void stop() {
+        running = false;
+    }
+}
@@ -0,0 +1,41 @@
+package com.github.liuyueyi.hhui.components.trace.clock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 手动推进的时钟，主要用于测试场景，让耗时结果可以被准确断言
+ *
+ * @author YiHui
+ * @date 2024/9/1
+ */
+public class FakeTraceClock implements TraceClock {
+    private final AtomicLong now;
+
+    public FakeTraceClock() {
+        this(0L);
+    }
+
+    public FakeTraceClock(long startNanos) {
+        this.now = new AtomicLong(startNanos);
+    }
+
+    @Override
+    public long nanoTime() {
+        return now.get();
+    }
+
+    /**
+     * 时间向前推进
+     *
+     * @param duration 时长
+     * @param unit     单位
+     * @return 推进之后的时间
+     */
+    public long advance(long duration, TimeUnit unit) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("clock can not go backwards: " + duration);
+        }
+        return now.addAndGet(unit.toNanos(duration));
+    }
+}
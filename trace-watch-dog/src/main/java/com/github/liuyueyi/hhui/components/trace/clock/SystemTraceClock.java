@@ -0,0 +1,19 @@
+package com.github.liuyueyi.hhui.components.trace.clock;
+
+/**
+ * 默认时钟，直接基于 System.nanoTime() 实现
+ *
+ * @author YiHui
+ * @date 2024/9/1
+ */
+public class SystemTraceClock implements TraceClock {
+    public static final SystemTraceClock INSTANCE = new SystemTraceClock();
+
+    private SystemTraceClock() {
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+}
@@ -0,0 +1,21 @@
+package com.github.liuyueyi.hhui.components.trace.clock;
+
+/**
+ * 耗时统计使用的时钟
+ * <p>
+ * 要求返回单调递增的纳秒时间，只用于计算时间差，不代表实际的墙上时间，因此不会受到 NTP 校时的影响
+ *
+ * @author YiHui
+ * @date 2024/9/1
+ */
+@FunctionalInterface
+public interface TraceClock {
+
+    /**
+     * 当前时间
+     *
+     * @return 单调递增的纳秒时间
+     */
+    long nanoTime();
+
+}
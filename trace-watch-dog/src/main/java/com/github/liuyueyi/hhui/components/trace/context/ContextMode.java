@@ -0,0 +1,23 @@
+package com.github.liuyueyi.hhui.components.trace.context;
+
+/**
+ * 记录器在线程之间的传递方式
+ *
+ * @author YiHui
+ * @date 2024/9/15
+ */
+public enum ContextMode {
+    /**
+     * TransmittableThreadLocal，线程池使用 TTL 包装，提交任务时捕获/回放所有注册的 TTL，兼容业务自定义的 TTL
+     */
+    TTL,
+    /**
+     * 普通的 ThreadLocal，异步任务由记录器显式传递，线程池不再包装
+     */
+    THREAD_LOCAL,
+    /**
+     * 异步任务中通过 ScopedValue 绑定记录器，要求 JDK 25+(JDK 21~24 需要开启 --enable-preview)，不支持时使用 THREAD_LOCAL
+     */
+    SCOPED_VALUE,
+    ;
+}
@@ -0,0 +1,219 @@
+package com.github.liuyueyi.hhui.components.trace.context;
+
+import com.github.liuyueyi.hhui.components.trace.recoder.ITraceRecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.function.Supplier;
+
+/**
+ * 基于 ScopedValue 的上下文，要求 JDK 25+(JDK 21~24 需要开启 --enable-preview)
+ * <p>
+ * ScopedValue 只能在一段代码的执行期间绑定，而 startTrace/close 并不在同一个代码块中，因此:
+ * - 开启trace的请求线程上，记录器依然保存在普通的 ThreadLocal 中
+ * - 异步任务在执行期间通过 ScopedValue 绑定记录器，执行线程(尤其是虚拟线程)上无需写入 ThreadLocal，任务结束绑定自动失效，无需恢复
+ * <p>
+ * 编译目标为 JDK 8，因此通过 MethodHandle 调用，句柄保存在常量中，JIT 之后与直接调用一致
+ * <p>
+ * 注意：这条路径目前只验证了功能与低版本JDK上的降级，尚未在支持 ScopedValue 的JDK上做过基准测试，
+ * 与 ThreadLocal/TTL 方式的开销对比以实际压测结果为准
+ *
+ * @author YiHui
+ * @date 2024/9/15
+ */
+public class ScopedValueTraceContext implements TraceContext {
+    private static final Logger log = LoggerFactory.getLogger(ScopedValueTraceContext.class);
+
+    public static final ScopedValueTraceContext INSTANCE = new ScopedValueTraceContext();
+
+    /**
+     * 未绑定时 orElse 返回的占位对象
+     */
+    private static final Object UNBOUND = new Object();
+
+    /**
+     * ScopedValue<Slot>，不支持时为null
+     */
+    private static final Object KEY;
+
+    /**
+     * ScopedValue.where(key, value) -> Carrier
+     */
+    private static final MethodHandle WHERE;
+
+    /**
+     * Carrier.run(Runnable)
+     */
+    private static final MethodHandle RUN;
+
+    /**
+     * ScopedValue.orElse(other)
+     */
+    private static final MethodHandle OR_ELSE;
+
+    static {
+        Object key = null;
+        MethodHandle where = null, run = null, orElse = null;
+        try {
+            Class<?> scopedValue = Class.forName("java.lang.ScopedValue");
+            Class<?> carrier = Class.forName("java.lang.ScopedValue$Carrier");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            key = lookup.findStatic(scopedValue, "newInstance", MethodType.methodType(scopedValue)).invoke();
+            where = lookup.findStatic(scopedValue, "where", MethodType.methodType(carrier, scopedValue, Object.class))
+                    .asType(MethodType.methodType(Object.class, Object.class, Object.class));
+            run = lookup.findVirtual(carrier, "run", MethodType.methodType(void.class, Runnable.class))
+                    .asType(MethodType.methodType(void.class, Object.class, Runnable.class));
+            orElse = lookup.findVirtual(scopedValue, "orElse", MethodType.methodType(Object.class, Object.class))
+                    .asType(MethodType.methodType(Object.class, Object.class, Object.class));
+            if (!probe(key, where, run, orElse)) {
+                key = null;
+            }
+        } catch (Throwable e) {
+            // 低版本JDK不存在，JDK 21~24 未开启预览特性时不可用
+            key = null;
+        }
+        if (key == null) {
+            log.warn("ScopedValue is not supported in java {}, use ThreadLocal instead", System.getProperty("java.version"));
+        }
+        KEY = key;
+        WHERE = where;
+        RUN = run;
+        OR_ELSE = orElse;
+    }
+
+    /**
+     * 实际绑定一次，确认在当前JDK中可以正常使用
+     */
+    private static boolean probe(Object key, MethodHandle where, MethodHandle run, MethodHandle orElse) throws Throwable {
+        Slot slot = new Slot(null, null, null);
+        Object[] read = new Object[1];
+        Object carrier = (Object) where.invokeExact(key, (Object) slot);
+        run.invokeExact(carrier, (Runnable) () -> {
+            try {
+                read[0] = (Object) orElse.invokeExact(key, UNBOUND);
+            } catch (Throwable e) {
+                read[0] = e;
+            }
+        });
+        return read[0] == slot && (Object) orElse.invokeExact(key, UNBOUND) == UNBOUND;
+    }
+
+    /**
+     * @return true 表示当前JDK支持 ScopedValue
+     */
+    public static boolean isSupported() {
+        return KEY != null;
+    }
+
+    /**
+     * 绑定到 ScopedValue 上的值；异步任务中再次开启/结束trace时，修改的是这个任务自己的绑定，不影响其他任务
+     * <p>
+     * 同时作为绑定期间执行的任务并保存返回结果，每次执行只需要创建这一个对象
+     */
+    private static final class Slot implements Runnable {
+        private ITraceRecoder recoder;
+        private final Runnable run;
+        private final Supplier<?> supplier;
+        private Object result;
+
+        private Slot(ITraceRecoder recoder, Runnable run, Supplier<?> supplier) {
+            this.recoder = recoder;
+            this.run = run;
+            this.supplier = supplier;
+        }
+
+        @Override
+        public void run() {
+            if (supplier != null) {
+                result = supplier.get();
+            } else {
+                run.run();
+            }
+        }
+    }
+
+    /**
+     * 未在异步任务中时(如请求线程)使用
+     */
+    private final ThreadLocal<ITraceRecoder> local = new ThreadLocal<>();
+
+    private ScopedValueTraceContext() {
+    }
+
+    private Slot slot() {
+        if (KEY == null) {
+            return null;
+        }
+        Object slot;
+        try {
+            slot = (Object) OR_ELSE.invokeExact(KEY, UNBOUND);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        return slot == UNBOUND ? null : (Slot) slot;
+    }
+
+    @Override
+    public ITraceRecoder get() {
+        Slot slot = slot();
+        return slot == null ? local.get() : slot.recoder;
+    }
+
+    @Override
+    public void set(ITraceRecoder recoder) {
+        Slot slot = slot();
+        if (slot == null) {
+            local.set(recoder);
+        } else {
+            slot.recoder = recoder;
+        }
+    }
+
+    @Override
+    public void remove() {
+        Slot slot = slot();
+        if (slot == null) {
+            local.remove();
+        } else {
+            slot.recoder = null;
+        }
+    }
+
+    @Override
+    public boolean isTransmittable() {
+        return false;
+    }
+
+    @Override
+    public Runnable bind(ITraceRecoder recoder, Runnable run) {
+        if (KEY == null) {
+            // 不支持时没有可绑定的内容，直接执行原任务
+            return run;
+        }
+        return () -> runWith(new Slot(recoder, run, null));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Supplier<T> bind(ITraceRecoder recoder, Supplier<T> supplier) {
+        if (KEY == null) {
+            return supplier;
+        }
+        return () -> (T) runWith(new Slot(recoder, null, supplier));
+    }
+
+    private static Object runWith(Slot slot) {
+        try {
+            Object carrier = (Object) WHERE.invokeExact(KEY, (Object) slot);
+            RUN.invokeExact(carrier, (Runnable) slot);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        return slot.result;
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.liuyueyi.hhui.components.trace.context;
+
+import com.github.liuyueyi.hhui.components.trace.recoder.ITraceRecoder;
+
+import java.util.function.Supplier;
+
+/**
+ * 基于普通 ThreadLocal 的上下文
+ * <p>
+ * 线程池不做包装，提交异步任务时只传递记录器本身，而不是捕获/回放所有注册的 TTL；
+ * 任务执行完毕之后恢复执行线程上原来的记录器，线程池满退化为在提交线程中执行时也不会丢失提交线程的上下文
+ *
+ * @author YiHui
+ * @date 2024/9/15
+ */
+public class ThreadLocalTraceContext implements TraceContext {
+    public static final ThreadLocalTraceContext INSTANCE = new ThreadLocalTraceContext();
+
+    private final ThreadLocal<ITraceRecoder> local = new ThreadLocal<>();
+
+    private ThreadLocalTraceContext() {
+    }
+
+    @Override
+    public ITraceRecoder get() {
+        return local.get();
+    }
+
+    @Override
+    public void set(ITraceRecoder recoder) {
+        local.set(recoder);
+    }
+
+    @Override
+    public void remove() {
+        local.remove();
+    }
+
+    @Override
+    public boolean isTransmittable() {
+        return false;
+    }
+
+    @Override
+    public Runnable bind(ITraceRecoder recoder, Runnable run) {
+        return () -> {
+            ITraceRecoder last = local.get();
+            local.set(recoder);
+            try {
+                run.run();
+            } finally {
+                restore(last);
+            }
+        };
+    }
+
+    @Override
+    public <T> Supplier<T> bind(ITraceRecoder recoder, Supplier<T> supplier) {
+        return () -> {
+            ITraceRecoder last = local.get();
+            local.set(recoder);
+            try {
+                return supplier.get();
+            } finally {
+                restore(last);
+            }
+        };
+    }
+
+    private void restore(ITraceRecoder last) {
+        if (last == null) {
+            local.remove();
+        } else {
+            local.set(last);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.liuyueyi.hhui.components.trace.context;
+
+import com.github.liuyueyi.hhui.components.trace.recoder.ITraceRecoder;
+
+import java.util.function.Supplier;
+
+/**
+ * 记录器的上下文，保存当前线程上的记录器，并负责传递到异步任务的执行线程
+ *
+ * @author YiHui
+ * @date 2024/9/15
+ */
+public interface TraceContext {
+
+    /**
+     * 获取传递方式对应的上下文，ScopedValue 不支持时使用 ThreadLocal
+     *
+     * @param mode 传递方式
+     * @return 上下文
+     */
+    static TraceContext of(ContextMode mode) {
+        if (mode == ContextMode.THREAD_LOCAL) {
+            return ThreadLocalTraceContext.INSTANCE;
+        } else if (mode == ContextMode.SCOPED_VALUE) {
+            return ScopedValueTraceContext.isSupported() ? ScopedValueTraceContext.INSTANCE : ThreadLocalTraceContext.INSTANCE;
+        }
+        return TtlTraceContext.INSTANCE;
+    }
+
+    /**
+     * @return 当前线程上的记录器，没有时返回null
+     */
+    ITraceRecoder get();
+
+    void set(ITraceRecoder recoder);
+
+    void remove();
+
+    /**
+     * @return true 表示依赖 TTL 包装之后的线程池传递上下文；否则由 bind 显式传递，直接使用原始线程池
+     */
+    boolean isTransmittable();
+
+    /**
+     * 在任务执行期间，将记录器绑定到执行线程上，执行完毕之后恢复
+     *
+     * @param recoder 记录器
+     * @param run     任务
+     * @return 绑定之后的任务
+     */
+    Runnable bind(ITraceRecoder recoder, Runnable run);
+
+    /**
+     * 在任务执行期间，将记录器绑定到执行线程上，执行完毕之后恢复
+     *
+     * @param recoder  记录器
+     * @param supplier 任务
+     * @return 绑定之后的任务
+     */
+    <T> Supplier<T> bind(ITraceRecoder recoder, Supplier<T> supplier);
+}
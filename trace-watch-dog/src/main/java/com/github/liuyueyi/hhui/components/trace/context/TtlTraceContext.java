@@ -0,0 +1,51 @@
+package com.github.liuyueyi.hhui.components.trace.context;
+
+import com.alibaba.ttl.TransmittableThreadLocal;
+import com.github.liuyueyi.hhui.components.trace.recoder.ITraceRecoder;
+
+import java.util.function.Supplier;
+
+/**
+ * 基于 TransmittableThreadLocal 的上下文，由 TTL 包装的线程池在提交时捕获、执行时回放，任务本身无需处理
+ *
+ * @author YiHui
+ * @date 2024/9/15
+ */
+public class TtlTraceContext implements TraceContext {
+    public static final TtlTraceContext INSTANCE = new TtlTraceContext();
+
+    private final TransmittableThreadLocal<ITraceRecoder> local = new TransmittableThreadLocal<>();
+
+    private TtlTraceContext() {
+    }
+
+    @Override
+    public ITraceRecoder get() {
+        return local.get();
+    }
+
+    @Override
+    public void set(ITraceRecoder recoder) {
+        local.set(recoder);
+    }
+
+    @Override
+    public void remove() {
+        local.remove();
+    }
+
+    @Override
+    public boolean isTransmittable() {
+        return true;
+    }
+
+    @Override
+    public Runnable bind(ITraceRecoder recoder, Runnable run) {
+        return run;
+    }
+
+    @Override
+    public <T> Supplier<T> bind(ITraceRecoder recoder, Supplier<T> supplier) {
+        return supplier;
+    }
+}
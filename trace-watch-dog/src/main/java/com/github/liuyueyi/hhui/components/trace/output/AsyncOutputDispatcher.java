@@ -0,0 +1,288 @@
+package com.github.liuyueyi.hhui.components.trace.output;
+
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步输出调度器
+ * <p>
+ * 执行完毕的trace快照放入一个预分配的有界环形队列，由一个后台线程统一执行各个 CostOutput，
+ * 日志拼接、IO等输出开销不再计入请求的耗时
+ * <p>
+ * - 多个请求线程并发写入，只需要一次CAS抢占槽位，不加锁
+ * - 队列满时，根据 OverflowPolicy 选择丢弃或阻塞等待，丢弃的数量可以通过 getDroppedCount() 获取
+ * - 后台线程空闲时挂起，由发布快照的生产者唤醒
+ *
+ * @author YiHui
+ * @date 2024/9/12
+ */
+public class AsyncOutputDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(AsyncOutputDispatcher.class);
+
+    private static final AtomicLongFieldUpdater<Slot> SEQUENCE = AtomicLongFieldUpdater.newUpdater(Slot.class, "sequence");
+
+    /**
+     * 队列满时的处理策略
+     */
+    public enum OverflowPolicy {
+        /**
+         * 直接丢弃，不影响请求
+         */
+        DROP,
+        /**
+         * 阻塞等待，直到有空闲的槽位
+         */
+        BLOCK,
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    private final OverflowPolicy policy;
+
+    /**
+     * 下一个写入的位置，多个生产者竞争
+     */
+    private final AtomicLong tail;
+
+    /**
+     * 下一个读取的位置，只有后台线程访问
+     */
+    private volatile long head;
+
+    private final LongAdder dropped;
+
+    private final Thread worker;
+
+    private volatile boolean running;
+
+    /**
+     * 后台线程已经退出主循环，此后抢占到槽位的生产者需要收回自己的快照
+     */
+    private volatile boolean terminated;
+
+    /**
+     * 后台线程是否在等待新的快照，生产者发布之后据此决定是否唤醒
+     */
+    private volatile boolean waiting;
+
+    /**
+     * @param capacity 队列容量，会向上取整为2的幂
+     * @param policy   队列满时的处理策略
+     */
+    public AsyncOutputDispatcher(int capacity, OverflowPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity should be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(i);
+        }
+        this.mask = size - 1;
+        this.policy = policy == null ? OverflowPolicy.DROP : policy;
+        this.tail = new AtomicLong();
+        this.dropped = new LongAdder();
+        this.running = true;
+        this.worker = new Thread(this::drain, "trace-watch-dog-output");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * 将快照交给所有的输出，全局的输出重定向规则 + 记录器自己的输出
+     *
+     * @param snapshot  执行快照
+     * @param outputs   记录器额外添加的输出，可以为null
+     * @param logEnable 是否输出日志
+     */
+    public static void outputAll(TraceSnapshot snapshot, List<CostOutput> outputs, boolean logEnable) {
+        for (CostOutput o : TraceWatch.getGlobalOutputStrategy()) {
+            output(o, snapshot, logEnable);
+        }
+        if (outputs != null) {
+            for (CostOutput o : outputs) {
+                output(o, snapshot, logEnable);
+            }
+        }
+    }
+
+    private static void output(CostOutput o, TraceSnapshot snapshot, boolean logEnable) {
+        if (!logEnable && LogOutput.isLogOutput(o)) {
+            return;
+        }
+        o.output(snapshot);
+    }
+
+    /**
+     * 提交一个执行完毕的快照
+     *
+     * @param snapshot  执行快照
+     * @param outputs   记录器额外添加的输出，可以为null
+     * @param logEnable 是否输出日志
+     * @return false 表示队列已满被丢弃，或者调度器已经停止，都会计入丢弃数；调度器停止时调用方需要自行输出
+     */
+    public boolean publish(TraceSnapshot snapshot, List<CostOutput> outputs, boolean logEnable) {
+        if (!running) {
+            dropped.increment();
+            return false;
+        }
+        while (true) {
+            long pos = tail.get();
+            Slot slot = slots[(int) (pos & mask)];
+            long diff = slot.sequence - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slot.snapshot = snapshot;
+                    slot.outputs = outputs;
+                    slot.logEnable = logEnable;
+                    // 写入完成之后再发布，后台线程看到序号变化时，一定能看到上面写入的内容
+                    slot.sequence = pos + 1;
+                    if (terminated && SEQUENCE.compareAndSet(slot, pos + 1, pos + slots.length)) {
+                        // 抢占槽位之后调度器已经停止，且后台线程没有取走，收回由调用方输出
+                        dropped.increment();
+                        return false;
+                    }
+                    signal();
+                    return true;
+                }
+            } else if (diff < 0) {
+                // 队列已满
+                if (policy == OverflowPolicy.DROP || !running) {
+                    dropped.increment();
+                    return false;
+                }
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+            }
+            // diff > 0 表示槽位已经被其他线程抢占，重新读取 tail 即可
+        }
+    }
+
+    /**
+     * 后台线程空闲等待时唤醒它
+     */
+    private void signal() {
+        if (waiting) {
+            waiting = false;
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private void drain() {
+        while (running) {
+            if (pollAndOutput()) {
+                continue;
+            }
+            // 先声明等待再检查一次，与生产者的 发布 -> 检查 waiting 配合，不会错过唤醒
+            waiting = true;
+            if (running && !hasPending()) {
+                LockSupport.park(this);
+            }
+            waiting = false;
+        }
+        terminated = true;
+        // 停止之前已经抢占到槽位的快照，等待写入完成之后输出；之后抢占的由生产者自行收回
+        while (head != tail.get()) {
+            Slot slot = slots[(int) (head & mask)];
+            while (slot.sequence == head) {
+                Thread.yield();
+            }
+            if (!pollAndOutput()) {
+                // 已经被生产者收回
+                head++;
+            }
+        }
+    }
+
+    private boolean hasPending() {
+        return slots[(int) (head & mask)].sequence == head + 1;
+    }
+
+    /**
+     * 取出一个快照并执行输出
+     *
+     * @return false 表示队列为空
+     */
+    private boolean pollAndOutput() {
+        Slot slot = slots[(int) (head & mask)];
+        if (slot.sequence != head + 1) {
+            return false;
+        }
+        TraceSnapshot snapshot = slot.snapshot;
+        List<CostOutput> outputs = slot.outputs;
+        boolean logEnable = slot.logEnable;
+        slot.snapshot = null;
+        slot.outputs = null;
+        // 槽位释放给下一轮的写入；停止之后生产者可能同时在收回，以CAS为准
+        if (!SEQUENCE.compareAndSet(slot, head + 1, head + slots.length)) {
+            return false;
+        }
+        head++;
+        try {
+            outputAll(snapshot, outputs, logEnable);
+        } catch (Throwable e) {
+            log.error("trace output error! {}", snapshot.getTraceName(), e);
+        }
+        return true;
+    }
+
+    /**
+     * @return 未被调度器接收的快照数，包括队列满时丢弃的，以及调度器停止之后提交的
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return 等待输出的快照数（近似值）
+     */
+    public long getPendingCount() {
+        return Math.max(0, tail.get() - head);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * 停止后台线程，已经提交的快照会先输出完毕
+     *
+     * @param timeout 最长等待时间
+     * @param unit    单位
+     */
+    public void shutdown(long timeout, TimeUnit unit) {
+        running = false;
+        LockSupport.unpark(worker);
+        try {
+            worker.join(unit.toMillis(timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Slot {
+        volatile long sequence;
+        private TraceSnapshot snapshot;
+        private List<CostOutput> outputs;
+        private boolean logEnable;
+
+        Slot(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.github.liuyueyi.hhui.components.trace.output;
+
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSpan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 输出 Chrome Trace Event 格式的json文件，可以直接拖入 chrome://tracing 或 https://ui.perfetto.dev 查看时间线
+ * <p>
+ * - 每个trace对应一个进程(pid)，进程名为 trace名 + traceId；每个执行线程对应一行(tid)
+ * - 任务的执行区间为一个完整事件(ph=X)，在线程池中的排队区间为一个异步事件(ph=b/e)，可以直观看到排队、串行与并行
+ * - 时间戳为trace开始的系统时间加上任务的开始偏移，单位微秒
+ * <p>
+ * 两种写入方式:
+ * - new ChromeTraceOutput(dir): 每个trace一个文件
+ * - new ChromeTraceOutput(dir, tracesPerFile): 多个trace写入同一个文件，写满之后滚动，进程退出前需要 close()
+ * <p>
+ * 只有完整的执行快照才有时间线，仅有聚合耗时的 {@link #output(Map, String)} 不做输出
+ *
+ * @author YiHui
+ * @date 2024/9/14
+ */
+public class ChromeTraceOutput implements CostOutput, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ChromeTraceOutput.class);
+
+    private static final DateTimeFormatter FILE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS");
+
+    private final Path dir;
+
+    /**
+     * 每个文件写入的trace数，1 表示每个trace一个文件
+     */
+    private final int tracesPerFile;
+
+    private final AtomicInteger pid = new AtomicInteger();
+
+    /**
+     * 以下字段受 this 保护
+     */
+    private int seq;
+    private Writer writer;
+    private int written;
+
+    public ChromeTraceOutput(Path dir) {
+        this(dir, 1);
+    }
+
+    /**
+     * @param dir           文件目录
+     * @param tracesPerFile 每个文件写入的trace数
+     */
+    public ChromeTraceOutput(Path dir, int tracesPerFile) {
+        if (tracesPerFile < 1) {
+            throw new IllegalArgumentException("tracesPerFile must be positive, but was " + tracesPerFile);
+        }
+        this.dir = dir;
+        this.tracesPerFile = tracesPerFile;
+    }
+
+    @Override
+    public void output(Map<String, Long> cost, String traceName) {
+    }
+
+    @Override
+    public void outputNanos(Map<String, Long> cost, String traceName) {
+    }
+
+    @Override
+    public void output(TraceSnapshot snapshot) {
+        StringBuilder sb = new StringBuilder(256 + snapshot.getSpans().size() * 192);
+        appendEvents(sb, snapshot, pid.incrementAndGet());
+        synchronized (this) {
+            try {
+                if (writer == null) {
+                    Files.createDirectories(dir);
+                    Path file = dir.resolve(fileName(snapshot));
+                    writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+                    // JSON Array Format，结尾的 ] 可以省略，进程异常退出时文件依然可以被加载
+                    writer.write("[\n");
+                } else {
+                    writer.write(",\n");
+                }
+                writer.append(sb);
+                if (++written >= tracesPerFile) {
+                    finish();
+                } else {
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                log.error("failed to write chrome trace: {}", snapshot.getTraceName(), e);
+                closeQuietly();
+            }
+        }
+    }
+
+    private String fileName(TraceSnapshot snapshot) {
+        String name = tracesPerFile == 1 ? snapshot.getTraceName() : "traces";
+        return name.replaceAll("[^\\w.-]", "_") + "-" + LocalDateTime.now().format(FILE_TIME_FORMAT) + "-" + (seq++) + ".json";
+    }
+
+    /**
+     * 生成一个trace的所有事件，事件之间以逗号分隔
+     *
+     * @param sb       输出
+     * @param snapshot 快照
+     * @param pid      进程id
+     */
+    public static void appendEvents(StringBuilder sb, TraceSnapshot snapshot, int pid) {
+        long base = snapshot.getTimestamp() * 1_000_000 - snapshot.getTotalCost();
+        String process = snapshot.getTraceId() == null ? snapshot.getTraceName()
+                : snapshot.getTraceName() + " " + snapshot.getTraceId();
+        metadata(sb, "process_name", pid, 0, process);
+
+        Set<Long> threads = new HashSet<>();
+        for (TraceSpan span : snapshot.getSpans()) {
+            long tid = span.getThreadName() == null ? 0 : span.getThreadId();
+            if (threads.add(tid)) {
+                sb.append(",\n");
+                metadata(sb, "thread_name", pid, tid, span.getThreadName() == null ? "not started" : span.getThreadName());
+            }
+
+            long ts = base + span.getStartOffset();
+            sb.append(",\n{\"name\":");
+            JsonUtil.appendString(sb, span.getName());
+            sb.append(",\"cat\":\"").append(span.isAsync() ? "async" : "sync")
+                    .append("\",\"ph\":\"X\",\"ts\":");
+            JsonUtil.appendMicros(sb, ts);
+            sb.append(",\"dur\":");
+            JsonUtil.appendMicros(sb, span.getCost());
+            sb.append(",\"pid\":").append(pid).append(",\"tid\":").append(tid)
+                    .append(",\"args\":{\"id\":").append(span.getId())
+                    .append(",\"parentId\":").append(span.getParentId());
+            if (span.isTimeout()) {
+                sb.append(",\"timeout\":true");
+            }
+            if (span.isCallerRuns()) {
+                sb.append(",\"callerRuns\":true");
+            }
+            sb.append("}}");
+
+            if (span.getQueueCost() > 0) {
+                // 排队区间不属于任何线程，使用异步事件单独展示
+                queue(sb, span, pid, tid, 'b', ts - span.getQueueCost());
+                queue(sb, span, pid, tid, 'e', ts);
+            }
+        }
+    }
+
+    private static void metadata(StringBuilder sb, String type, int pid, long tid, String name) {
+        sb.append("{\"name\":\"").append(type).append("\",\"ph\":\"M\",\"pid\":").append(pid)
+                .append(",\"tid\":").append(tid).append(",\"args\":{\"name\":");
+        JsonUtil.appendString(sb, name);
+        sb.append("}}");
+    }
+
+    private static void queue(StringBuilder sb, TraceSpan span, int pid, long tid, char ph, long ts) {
+        sb.append(",\n{\"name\":");
+        JsonUtil.appendString(sb, span.getName() + " queued");
+        sb.append(",\"cat\":\"queue\",\"ph\":\"").append(ph).append("\",\"id\":").append(span.getId())
+                .append(",\"ts\":");
+        JsonUtil.appendMicros(sb, ts);
+        sb.append(",\"pid\":").append(pid).append(",\"tid\":").append(tid).append('}');
+    }
+
+    private void finish() throws IOException {
+        writer.write("\n]\n");
+        writer.close();
+        writer = null;
+        written = 0;
+    }
+
+    private void closeQuietly() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        writer = null;
+        written = 0;
+    }
+
+    /**
+     * 结束当前正在写入的文件
+     */
+    @Override
+    public synchronized void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            finish();
+        } catch (IOException e) {
+            log.error("failed to close chrome trace file", e);
+            closeQuietly();
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package com.github.liuyueyi.hhui.components.trace.output;
 
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author YiHui
@@ -12,9 +16,34 @@ public interface CostOutput {
     /**
      * 输出
      *
-     * @param cost      任务耗时分布
+     * @param cost      任务耗时分布，单位 ms
      * @param traceName Trace
      */
     void output(Map<String, Long> cost, String traceName);
 
+    /**
+     * 纳秒精度的输出，记录器内部统一以纳秒保存耗时
+     * <p>
+     * 默认换算成毫秒之后，交给 {@link #output(Map, String)} 处理；需要展示 1ms 以内耗时的输出，可以覆盖这个方法
+     *
+     * @param cost      任务耗时分布，单位 ns
+     * @param traceName Trace
+     */
+    default void outputNanos(Map<String, Long> cost, String traceName) {
+        Map<String, Long> millis = new LinkedHashMap<>(cost.size() << 1);
+        cost.forEach((k, v) -> millis.put(k, TimeUnit.NANOSECONDS.toMillis(v)));
+        output(millis, traceName);
+    }
+
+    /**
+     * 基于完整执行树的输出，可以拿到嵌套任务的父子关系、开始偏移、总耗时与自身耗时
+     * <p>
+     * 默认只使用按任务名聚合的耗时，交给 {@link #outputNanos(Map, String)} 处理
+     *
+     * @param snapshot 执行快照
+     */
+    default void output(TraceSnapshot snapshot) {
+        outputNanos(snapshot.getCost(), snapshot.getTraceName());
+    }
+
 }
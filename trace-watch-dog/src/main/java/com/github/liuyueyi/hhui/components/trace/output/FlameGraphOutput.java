@@ -0,0 +1,209 @@
+package com.github.liuyueyi.hhui.components.trace.output;
+
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSpan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 将嵌套的执行树合并为火焰图使用的 collapsed-stack 格式，并在多次请求之间累加
+ * <p>
+ * 每一行为 `trace;外层任务;内层任务 自身耗时(微秒)`，例如 @TraceDog 注解的方法之间相互调用时:
+ * <pre>
+ * com.xx.Index#entry;com.xx.ServiceA#query;com.xx.ServiceB#rpc 12000
+ * </pre>
+ * 文件定期整体重写(先写临时文件再替换)，可以直接交给 flamegraph.pl / speedscope 等工具渲染，查看整个服务的耗时都花在了哪里
+ * <p>
+ * 使用方式: TraceWatch.registerOutput(new FlameGraphOutput(Paths.get("logs/trace.collapsed"), Duration.ofMinutes(1)))
+ *
+ * @author YiHui
+ * @date 2024/9/14
+ */
+public class FlameGraphOutput implements CostOutput, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(FlameGraphOutput.class);
+
+    /**
+     * 默认最多记录的调用栈数量，避免任务名中带有变量时无限增长
+     */
+    public static final int DEFAULT_MAX_STACKS = 10_000;
+
+    /**
+     * 超过最大数量之后，新的调用栈合并到这个节点下
+     */
+    static final String OVERFLOW_FRAME = "[other]";
+
+    private final Path file;
+    private final int maxStacks;
+    /**
+     * 调用栈 -> 自身耗时(纳秒)，输出时再统一换算为微秒，避免大量短任务的不足一微秒的部分被逐个截断
+     */
+    private final Map<String, LongAdder> stacks = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 不定期刷盘，需要主动调用 flush()
+     *
+     * @param file 输出文件
+     */
+    public FlameGraphOutput(Path file) {
+        this(file, null, DEFAULT_MAX_STACKS);
+    }
+
+    public FlameGraphOutput(Path file, Duration flushInterval) {
+        this(file, flushInterval, DEFAULT_MAX_STACKS);
+    }
+
+    /**
+     * @param file          输出文件
+     * @param flushInterval 刷盘间隔，为null时不定期刷盘
+     * @param maxStacks     最多记录的调用栈数量
+     */
+    public FlameGraphOutput(Path file, Duration flushInterval, int maxStacks) {
+        this.file = file;
+        this.maxStacks = maxStacks;
+        if (flushInterval == null) {
+            this.scheduler = null;
+        } else {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "trace-flame-graph-flush");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = flushInterval.toMillis();
+            scheduler.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void output(Map<String, Long> cost, String traceName) {
+        Map<String, Long> nanos = new HashMap<>(cost.size() << 1);
+        cost.forEach((k, v) -> nanos.put(k, TimeUnit.MILLISECONDS.toNanos(v)));
+        outputNanos(nanos, traceName);
+    }
+
+    /**
+     * 只有聚合耗时时，任务都作为trace的直接子节点，trace本身只记录扣除任务之后的耗时
+     */
+    @Override
+    public void outputNanos(Map<String, Long> cost, String traceName) {
+        String root = frame(traceName);
+        long self = cost.getOrDefault(traceName, 0L);
+        for (Map.Entry<String, Long> entry : cost.entrySet()) {
+            if (!entry.getKey().equals(traceName)) {
+                add(root + ";" + frame(entry.getKey()), entry.getValue());
+                self -= entry.getValue();
+            }
+        }
+        add(root, Math.max(0, self));
+    }
+
+    @Override
+    public void output(TraceSnapshot snapshot) {
+        Map<Integer, String> paths = new HashMap<>(snapshot.getSpans().size() << 1);
+        for (TraceSpan span : snapshot.getSpans()) {
+            // 快照中的节点按照id排序，父节点总是先于子节点出现
+            String parent = paths.get(span.getParentId());
+            String path = parent == null ? frame(span.getName()) : parent + ";" + frame(span.getName());
+            paths.put(span.getId(), path);
+            add(path, span.getSelfCost());
+        }
+    }
+
+    private void add(String stack, long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        LongAdder adder = stacks.get(stack);
+        if (adder == null) {
+            if (stacks.size() >= maxStacks) {
+                int idx = stack.indexOf(';');
+                stack = (idx < 0 ? stack : stack.substring(0, idx)) + ";" + OVERFLOW_FRAME;
+            }
+            adder = stacks.computeIfAbsent(stack, k -> new LongAdder());
+        }
+        adder.add(nanos);
+    }
+
+    /**
+     * 调用栈中使用 ; 分隔，行尾使用空格分隔耗时，任务名中的这些字符需要替换掉
+     */
+    private static String frame(String name) {
+        if (name == null) {
+            return "";
+        }
+        return name.replace(';', ',').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    /**
+     * @return 当前累计的调用栈 -> 自身耗时(微秒)，按调用栈排序
+     */
+    public Map<String, Long> getStacks() {
+        Map<String, Long> result = new TreeMap<>();
+        stacks.forEach((k, v) -> {
+            long micros = TimeUnit.NANOSECONDS.toMicros(v.sum());
+            if (micros > 0) {
+                result.put(k, micros);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 清空已累计的数据
+     */
+    public void reset() {
+        stacks.clear();
+    }
+
+    /**
+     * 将累计的数据整体写入文件
+     */
+    public synchronized void flush() {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Path dir = file.toAbsolutePath().getParent();
+            if (dir != null) {
+                Files.createDirectories(dir);
+            }
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Long> entry : getStacks().entrySet()) {
+                    writer.write(entry.getKey());
+                    writer.write(' ');
+                    writer.write(Long.toString(entry.getValue()));
+                    writer.write('\n');
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("failed to flush flame graph: {}", file, e);
+        }
+    }
+
+    /**
+     * 停止定时刷盘，并写入最后一次
+     */
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        flush();
+    }
+}
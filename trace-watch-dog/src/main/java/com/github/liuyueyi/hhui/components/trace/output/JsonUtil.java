@@ -0,0 +1,75 @@
+package com.github.liuyueyi.hhui.components.trace.output;
+
+/**
+ * 输出json时使用的工具方法，避免引入额外的json依赖
+ *
+ * @author YiHui
+ * @date 2024/9/14
+ */
+public final class JsonUtil {
+    private JsonUtil() {
+    }
+
+    /**
+     * 追加转义之后的json字符串，null 输出为 null
+     *
+     * @param sb 输出
+     * @param s  字符串
+     */
+    public static StringBuilder appendString(StringBuilder sb, String s) {
+        if (s == null) {
+            return sb.append("null");
+        }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"');
+    }
+
+    /**
+     * 纳秒转换为微秒输出，保留3位小数
+     *
+     * @param sb    输出
+     * @param nanos 纳秒
+     */
+    public static StringBuilder appendMicros(StringBuilder sb, long nanos) {
+        if (nanos < 0) {
+            sb.append('-');
+            nanos = -nanos;
+        }
+        sb.append(nanos / 1000);
+        long fraction = nanos % 1000;
+        if (fraction != 0) {
+            sb.append('.');
+            if (fraction < 100) {
+                sb.append(fraction < 10 ? "00" : "0");
+            }
+            sb.append(fraction);
+        }
+        return sb;
+    }
+}
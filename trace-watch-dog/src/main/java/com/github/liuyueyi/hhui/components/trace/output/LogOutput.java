@@ -1,12 +1,18 @@
 package com.github.liuyueyi.hhui.components.trace.output;
 
 import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.span.CriticalPath;
+import com.github.liuyueyi.hhui.components.trace.span.ParallelismReport;
+import com.github.liuyueyi.hhui.components.trace.span.TaskStat;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSpan;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.helpers.NOPLoggerFactory;
 
 import java.text.NumberFormat;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 默认的日志输出
@@ -17,48 +23,407 @@ import java.util.Map;
 public class LogOutput {
     private static final Logger log = LoggerFactory.getLogger(DefaultTraceRecoder.class);
 
-    public static final CostOutput defaultLogOutput = LogOutput::logPrint;
+    private static final String BLOCK_START = "\n---------------------\n";
+    private static final String BLOCK_END = "\n--------------------\n";
+    private static final String FLAT_HEADER = "---------------------------------------------\n"
+            + "ms         %     Task name\n"
+            + "---------------------------------------------\n";
+    private static final String TREE_HEADER = "------------------------------------------------------------------\n"
+            + "total(ms)     self(ms)      self%         start(ms)     Task name\n"
+            + "------------------------------------------------------------------\n";
+
+    /**
+     * 线程复用的输出缓冲，超过上限之后不再保留，避免个别超大的trace长期占用内存
+     */
+    private static final int BUFFER_RETAIN_LIMIT = 64 * 1024;
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(1024));
+
+    /**
+     * 默认 Locale 下百分比的格式与整数计算的结果不一致时(如部分语言的百分号前有空格)，退回使用 NumberFormat
+     */
+    private static final boolean INTEGER_PERCENT;
+    private static final ThreadLocal<NumberFormat> PERCENT_FORMAT = ThreadLocal.withInitial(() -> {
+        NumberFormat pf = NumberFormat.getPercentInstance();
+        pf.setMinimumIntegerDigits(2);
+        pf.setMinimumFractionDigits(2);
+        pf.setGroupingUsed(false);
+        return pf;
+    });
+
+    /**
+     * 超过这个值时，double 除法的精度误差可能影响舍入结果，直接使用 NumberFormat
+     */
+    private static final long INTEGER_PERCENT_LIMIT = 1L << 36;
+
+    static {
+        boolean match = true;
+        long[][] samples = {{0, 1}, {1, 3}, {2, 3}, {5, 100}, {1234, 1000}, {7, 70000}, {123456, 1000000}, {3, 2}};
+        StringBuilder sb = new StringBuilder();
+        for (long[] sample : samples) {
+            sb.setLength(0);
+            appendIntegerPercent(sb, sample[0], sample[1]);
+            if (!sb.toString().equals(PERCENT_FORMAT.get().format(sample[0] / (double) sample[1]))) {
+                match = false;
+                break;
+            }
+        }
+        INTEGER_PERCENT = match;
+    }
+
+    public static final CostOutput defaultLogOutput = new CostOutput() {
+        @Override
+        public void output(Map<String, Long> cost, String traceName) {
+            logPrint(cost, traceName);
+        }
+
+        @Override
+        public void outputNanos(Map<String, Long> cost, String traceName) {
+            logPrintNanos(cost, traceName);
+        }
+
+        @Override
+        public void output(TraceSnapshot snapshot) {
+            logPrint(snapshot);
+        }
+    };
+
+    /**
+     * 以执行树的方式输出日志，嵌套任务会缩进展示，并给出每个任务扣除子任务之后的自身耗时
+     * 使用方式: TraceWatch.registerOutput(LogOutput.treeLogOutput)
+     */
+    public static final CostOutput treeLogOutput = new CostOutput() {
+        @Override
+        public void output(Map<String, Long> cost, String traceName) {
+            logPrint(cost, traceName);
+        }
+
+        @Override
+        public void output(TraceSnapshot snapshot) {
+            logPrintTree(snapshot);
+        }
+    };
+
+    /**
+     * 判断是否为日志输出，日志输出受到 logEnable 的控制
+     *
+     * @param output 输出
+     * @return true 表示日志输出
+     */
+    public static boolean isLogOutput(CostOutput output) {
+        return output == defaultLogOutput || output == treeLogOutput;
+    }
 
     /**
      * 输出日志
      *
-     * @param cost      耗时分布
+     * @param cost      耗时分布, ms
      * @param traceName 总任务
      */
     public static void logPrint(Map<String, Long> cost, String traceName) {
-        StringBuilder sb = new StringBuilder();
+        print(cost, traceName, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 输出日志，耗时以 ms 展示，保留到 us 精度
+     *
+     * @param cost      耗时分布, ns
+     * @param traceName 总任务
+     */
+    public static void logPrintNanos(Map<String, Long> cost, String traceName) {
+        print(cost, traceName, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 输出日志，同名任务执行多次时，展示累计耗时，并附带次数、平均、最小、最大耗时
+     * <p>
+     * 直接基于 TaskStat 中的原始类型输出，不经过 getCost() 装箱之后的 Map
+     *
+     * @param snapshot 执行快照
+     */
+    public static void logPrint(TraceSnapshot snapshot) {
+        String traceName = snapshot.getTraceName();
+        Map<String, TaskStat> stats = snapshot.getTaskStats();
+        long totalCost = stats.get(traceName).getSum();
+        StringBuilder sb = buffer();
+        appendTitle(sb, traceName, totalCost, TimeUnit.NANOSECONDS);
+        int callerRuns = 0;
+        for (TaskStat stat : stats.values()) {
+            callerRuns += stat.getCallerRunsCount();
+        }
+        appendCallerRuns(sb, callerRuns);
         sb.append('\n');
+        sb.append(FLAT_HEADER);
+        for (Map.Entry<String, TaskStat> entry : stats.entrySet()) {
+            if (entry.getKey().equals(traceName)) {
+                // 总耗时情况，不打印在分布中
+                continue;
+            }
+            TaskStat stat = entry.getValue();
+            appendRow(sb, entry.getKey(), stat.getSum(), totalCost, TimeUnit.NANOSECONDS, stat);
+        }
+        if (snapshot.hasAsync()) {
+            appendCriticalPath(sb, snapshot.getCriticalPath());
+            appendParallelism(sb, snapshot.getParallelism());
+        }
+        flush(sb);
+    }
+
+    private static void print(Map<String, Long> cost, String traceName, TimeUnit unit) {
+        StringBuilder sb = buffer();
         long totalCost = cost.get(traceName);
-        sb.append("TraceWatch '").append(traceName).append("': running time = ").append(totalCost).append(" ms");
+        appendTitle(sb, traceName, totalCost, unit);
         sb.append('\n');
         if (cost.isEmpty()) {
             sb.append("No task info kept");
         } else {
-            sb.append("---------------------------------------------\n");
-            sb.append("ms         %     Task name\n");
-            sb.append("---------------------------------------------\n");
-            NumberFormat pf = NumberFormat.getPercentInstance();
-            pf.setMinimumIntegerDigits(2);
-            pf.setMinimumFractionDigits(2);
-            pf.setGroupingUsed(false);
+            sb.append(FLAT_HEADER);
             for (Map.Entry<String, Long> entry : cost.entrySet()) {
                 if (entry.getKey().equals(traceName)) {
                     // 总耗时情况，不打印在分布中
                     continue;
                 }
+                appendRow(sb, entry.getKey(), entry.getValue(), totalCost, unit, null);
+            }
+        }
+        flush(sb);
+    }
+
+    private static void appendTitle(StringBuilder sb, String traceName, long totalCost, TimeUnit unit) {
+        sb.append('\n');
+        sb.append("TraceWatch '").append(traceName).append("': running time = ");
+        appendMillis(sb, totalCost, unit).append(" ms");
+    }
+
+    /**
+     * 扁平化分布中的一行
+     *
+     * @param stat 同名任务的统计，只有耗时的输出时为null
+     */
+    private static void appendRow(StringBuilder sb, String name, long cost, long totalCost, TimeUnit unit, TaskStat stat) {
+        appendMillis(sb, cost, unit).append("\t\t");
+        appendPercent(sb, cost, totalCost).append("\t\t");
+        sb.append(name);
+        if (stat == null) {
+            sb.append("\n");
+            return;
+        }
+        if (stat.getCount() > 1) {
+            sb.append("\t\t(count=").append(stat.getCount());
+            appendMillis(sb.append(", avg="), stat.getAvg(), unit);
+            appendMillis(sb.append(", min="), stat.getMin(), unit);
+            appendMillis(sb.append(", max="), stat.getMax(), unit).append(')');
+        }
+        if (stat.getQueueSum() > 0) {
+            // 异步任务的耗时为执行耗时，排队耗时单独展示，用于区分线程池饱和与下游慢调用
+            appendMillis(sb.append("\t\t(queued="), stat.getQueueSum(), unit);
+            appendMillis(sb.append(", running="), cost, unit).append(')');
+        }
+        if (stat.getCallerRunsCount() > 0) {
+            sb.append("\t\t[caller-runs=").append(stat.getCallerRunsCount()).append(']');
+        }
+        if (stat.getTimeoutCount() > 0) {
+            sb.append("\t\t[timeout=").append(stat.getTimeoutCount()).append(']');
+        }
+        sb.append("\n");
+    }
+
+    /**
+     * 以执行树的方式输出日志
+     *
+     * @param snapshot 执行快照
+     */
+    public static void logPrintTree(TraceSnapshot snapshot) {
+        StringBuilder sb = buffer();
+        sb.append('\n');
+        long totalCost = snapshot.getTotalCost();
+        sb.append("TraceWatch '").append(snapshot.getTraceName()).append("': running time = ");
+        appendMillis(sb, totalCost, TimeUnit.NANOSECONDS).append(" ms");
+        appendCallerRuns(sb, snapshot.getCallerRunsCount());
+        sb.append('\n');
+        sb.append(TREE_HEADER);
+        // 只有同步任务时，所有任务都在关键路径上，不再额外标记
+        CriticalPath criticalPath = snapshot.hasAsync() ? snapshot.getCriticalPath() : null;
+        appendTree(sb, snapshot.getRoot(), 0, totalCost, criticalPath);
+        appendCriticalPath(sb, criticalPath);
+        appendParallelism(sb, criticalPath == null ? null : snapshot.getParallelism());
+        flush(sb);
+    }
 
-                sb.append(entry.getValue()).append("\t\t");
-                sb.append(pf.format(entry.getValue() / (double) totalCost)).append("\t\t");
-                sb.append(entry.getKey()).append("\n");
+    private static void appendTree(StringBuilder sb, TraceSpan span, int depth, long totalCost, CriticalPath criticalPath) {
+        appendMillis(sb, span.getCost(), TimeUnit.NANOSECONDS).append("\t\t");
+        appendMillis(sb, span.getSelfCost(), TimeUnit.NANOSECONDS).append("\t\t");
+        appendPercent(sb, span.getSelfCost(), totalCost).append("\t\t");
+        appendMillis(sb, span.getStartOffset(), TimeUnit.NANOSECONDS).append("\t\t");
+        for (int i = 1; i < depth; i++) {
+            sb.append("|  ");
+        }
+        if (depth > 0) {
+            sb.append("|- ");
+        }
+        sb.append(span.getName());
+        if (span.isAsync()) {
+            appendMillis(sb.append(" [queued="), span.getQueueCost(), TimeUnit.NANOSECONDS).append(" ms]");
+        }
+        if (span.isCallerRuns()) {
+            sb.append(" [caller-runs]");
+        }
+        if (span.isTimeout()) {
+            sb.append(" [timeout]");
+        }
+        if (criticalPath != null && depth > 0) {
+            if (criticalPath.isCritical(span)) {
+                sb.append(" [critical]");
+            } else {
+                appendMillis(sb.append(" [slack="), criticalPath.getSlack(span), TimeUnit.NANOSECONDS).append(" ms]");
             }
         }
+        sb.append('\n');
+        for (TraceSpan child : span.getChildren()) {
+            appendTree(sb, child, depth + 1, totalCost, criticalPath);
+        }
+    }
+
+    /**
+     * 输出关键路径: 决定trace总耗时的任务链，优化不在这条链上的任务不会降低总耗时
+     */
+    private static void appendCriticalPath(StringBuilder sb, CriticalPath criticalPath) {
+        if (criticalPath == null || criticalPath.getPath().isEmpty()) {
+            return;
+        }
+        sb.append("critical path: ");
+        boolean first = true;
+        for (TraceSpan span : criticalPath.getPath()) {
+            if (!first) {
+                sb.append(" -> ");
+            }
+            first = false;
+            appendMillis(sb.append(span.getName()).append('('), span.getCost(), TimeUnit.NANOSECONDS).append(" ms)");
+        }
+        sb.append('\n');
+    }
+
+    /**
+     * 输出并行效率: 异步任务与提交线程并行执行，各自的耗时占比没有意义，改为对比线程总工作时间与总耗时
+     * <pre>
+     * parallelism: wall=10.000 ms, work=25.000 ms, concurrency=2.50, blocked=6.000 ms, sync=4.000 ms, async=21.000 ms(overlap=3.000 ms), queued=0.500 ms
+     * </pre>
+     */
+    private static void appendParallelism(StringBuilder sb, ParallelismReport report) {
+        if (report == null) {
+            return;
+        }
+        TimeUnit unit = TimeUnit.NANOSECONDS;
+        appendMillis(sb.append("parallelism: wall="), report.getWallTime(), unit);
+        appendMillis(sb.append(" ms, work="), report.getTaskTime(), unit);
+        sb.append(" ms, concurrency=");
+        long concurrency = Math.round(report.getConcurrency() * 100);
+        sb.append(concurrency / 100).append('.');
+        if (concurrency % 100 < 10) {
+            sb.append('0');
+        }
+        sb.append(concurrency % 100);
+        appendMillis(sb.append(", blocked="), report.getBlockedTime(), unit);
+        appendMillis(sb.append(" ms, sync="), report.getSyncTime(), unit);
+        appendMillis(sb.append(" ms, async="), report.getAsyncTime(), unit);
+        appendMillis(sb.append(" ms(overlap="), report.getOverlapTime(), unit);
+        appendMillis(sb.append(" ms), queued="), report.getQueueTime(), unit).append(" ms\n");
+    }
+
+    /**
+     * 存在退化为同步执行的异步任务时，在标题中提示线程池已经饱和
+     */
+    private static void appendCallerRuns(StringBuilder sb, int callerRuns) {
+        if (callerRuns > 0) {
+            sb.append(" [thread pool saturated, caller-runs=").append(callerRuns).append(']');
+        }
+    }
+
+    /**
+     * @return 当前线程复用的输出缓冲，已清空并写入了开始的分隔线
+     */
+    private static StringBuilder buffer() {
+        StringBuilder sb = BUFFER.get();
+        if (sb.capacity() > BUFFER_RETAIN_LIMIT) {
+            sb = new StringBuilder(1024);
+            BUFFER.set(sb);
+        }
+        sb.setLength(0);
+        return sb.append(BLOCK_START);
+    }
 
+    private static void flush(StringBuilder sb) {
+        sb.append(BLOCK_END);
         if (LoggerFactory.getILoggerFactory() instanceof NOPLoggerFactory) {
             // 若项目中没有Slfj4的实现，则直接使用标准输出
-            System.out.printf("\n---------------------\n%s\n--------------------\n%n", sb);
+            System.out.println(sb);
         } else if (log.isInfoEnabled()) {
-            log.info("\n---------------------\n{}\n--------------------\n", sb);
+            // 缓冲会被复用，因此转换为字符串之后再交给日志框架(异步的 appender 可能延迟格式化)
+            log.info(sb.toString());
         }
     }
 
+    /**
+     * 输出百分比，格式与 NumberFormat.getPercentInstance() 保持一致: 至少两位整数、两位小数、HALF_EVEN 舍入
+     *
+     * @param sb    输出
+     * @param value 耗时
+     * @param total 总耗时
+     * @return sb
+     */
+    static StringBuilder appendPercent(StringBuilder sb, long value, long total) {
+        if (total == 0) {
+            value = 0;
+            total = 1;
+        }
+        if (!INTEGER_PERCENT || value < 0 || value >= INTEGER_PERCENT_LIMIT || total >= INTEGER_PERCENT_LIMIT
+                || (value * 10000 % total) * 2 == total) {
+            // 恰好处于舍入的中间值时，NumberFormat 基于 double 的实际二进制值舍入，结果难以用整数复现
+            return sb.append(PERCENT_FORMAT.get().format(value / (double) total));
+        }
+        return appendIntegerPercent(sb, value, total);
+    }
+
+    private static StringBuilder appendIntegerPercent(StringBuilder sb, long value, long total) {
+        // 以万分之一为单位，四舍五入(非中间值时与 HALF_EVEN 一致)
+        long scaled = value * 10000;
+        long basis = scaled / total;
+        if ((scaled % total) * 2 > total) {
+            basis++;
+        }
+        long integer = basis / 100;
+        long fraction = basis % 100;
+        if (integer < 10) {
+            sb.append('0');
+        }
+        sb.append(integer).append('.');
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        return sb.append(fraction).append('%');
+    }
+
+    /**
+     * 以 ms 为单位输出耗时，纳秒精度的耗时保留三位小数
+     *
+     * @param sb   输出
+     * @param cost 耗时
+     * @param unit 耗时单位
+     * @return sb
+     */
+    static StringBuilder appendMillis(StringBuilder sb, long cost, TimeUnit unit) {
+        if (unit == TimeUnit.MILLISECONDS) {
+            return sb.append(cost);
+        }
+
+        long micros = unit.toMicros(cost);
+        sb.append(micros / 1000).append('.');
+        long fraction = micros % 1000;
+        if (fraction < 100) {
+            sb.append('0');
+        }
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        return sb.append(fraction);
+    }
 }
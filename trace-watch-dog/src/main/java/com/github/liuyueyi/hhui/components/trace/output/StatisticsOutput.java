@@ -0,0 +1,37 @@
+package com.github.liuyueyi.hhui.components.trace.output;
+
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+import com.github.liuyueyi.hhui.components.trace.stat.TraceStatistics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 将每个结束的trace记录到全局的耗时统计中，用于查看跨请求的耗时分布(p50/p90/p99/max)
+ * <p>
+ * 使用方式: TraceWatch.registerOutput(StatisticsOutput.INSTANCE)
+ *
+ * @author YiHui
+ * @date 2024/9/12
+ */
+public class StatisticsOutput implements CostOutput {
+    public static final StatisticsOutput INSTANCE = new StatisticsOutput();
+
+    @Override
+    public void output(Map<String, Long> cost, String traceName) {
+        Map<String, Long> nanos = new LinkedHashMap<>(cost.size() << 1);
+        cost.forEach((k, v) -> nanos.put(k, TimeUnit.MILLISECONDS.toNanos(v)));
+        TraceStatistics.record(traceName, nanos);
+    }
+
+    @Override
+    public void outputNanos(Map<String, Long> cost, String traceName) {
+        TraceStatistics.record(traceName, cost);
+    }
+
+    @Override
+    public void output(TraceSnapshot snapshot) {
+        TraceStatistics.record(snapshot);
+    }
+}
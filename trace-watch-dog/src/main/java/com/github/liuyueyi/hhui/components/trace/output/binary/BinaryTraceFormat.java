@@ -0,0 +1,139 @@
+package com.github.liuyueyi.hhui.components.trace.output.binary;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * 二进制trace文件的格式定义，写入与读取共用
+ * <p>
+ * 文件头(16字节): int magic 'TWDB' | int version | long 创建时间戳
+ * <p>
+ * 之后是按8字节对齐、首尾相接的记录，每条记录的头部(16字节):
+ * short magic | byte type | byte 保留 | int 记录总长度(含头部与对齐填充) | int 内容的 CRC32 | int 内容长度
+ * <p>
+ * 进程在抢占区间与写入头部之间退出时，读取需要逐个对齐位置向后查找下一条记录，内容中恰好像记录头的字节会通过长度与校验和排除
+ * <p>
+ * - DICT: varint id | string name，名称字典，每个文件独立编号
+ * - TRACE: long 时间戳 | varint traceName id | string traceId | varint 节点数 | 节点...
+ * - 节点: varint id | varint parentId + 1 | varint name id | varlong 开始偏移 | varlong 耗时 | varlong 排队耗时 | byte flags
+ * <p>
+ * 耗时单位均为纳秒；string 的编码为 varint (字节数 + 1) + UTF-8，0 表示 null
+ *
+ * @author YiHui
+ * @date 2024/9/13
+ */
+final class BinaryTraceFormat {
+    static final int FILE_MAGIC = 0x54574442;
+    static final int VERSION = 2;
+    static final int FILE_HEADER_SIZE = 16;
+
+    static final short RECORD_MAGIC = 0x5452;
+    static final int RECORD_HEADER_SIZE = 16;
+    static final int ALIGN = 8;
+
+    static final byte TYPE_DICT = 1;
+    static final byte TYPE_TRACE = 2;
+
+    static final int FLAG_ASYNC = 1;
+    static final int FLAG_TIMEOUT = 1 << 1;
+    static final int FLAG_CALLER_RUNS = 1 << 2;
+
+    static final String FILE_SUFFIX = ".bin";
+
+    private BinaryTraceFormat() {
+    }
+
+    static int align(int len) {
+        return (len + ALIGN - 1) & -ALIGN;
+    }
+
+    /**
+     * @param buf 内容，从 position 到 limit
+     * @return CRC32 校验和
+     */
+    static int checksum(ByteBuffer buf) {
+        CRC32 crc = new CRC32();
+        crc.update(buf);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 可复用的编码缓冲区，每个写线程持有一个
+     */
+    static final class Encoder {
+        byte[] buf = new byte[1024];
+        int pos;
+
+        Encoder reset() {
+            pos = 0;
+            return this;
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, pos + n));
+            }
+        }
+
+        void writeByte(int v) {
+            ensure(1);
+            buf[pos++] = (byte) v;
+        }
+
+        void writeLong(long v) {
+            ensure(8);
+            for (int i = 56; i >= 0; i -= 8) {
+                buf[pos++] = (byte) (v >>> i);
+            }
+        }
+
+        void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        void writeString(String s) {
+            if (s == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+    }
+
+    static long readVarLong(ByteBuffer buf) {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return v;
+            }
+        }
+        throw new IllegalStateException("malformed varint");
+    }
+
+    static int readVarInt(ByteBuffer buf) {
+        return (int) readVarLong(buf);
+    }
+
+    static String readString(ByteBuffer buf) {
+        int len = readVarInt(buf) - 1;
+        if (len < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
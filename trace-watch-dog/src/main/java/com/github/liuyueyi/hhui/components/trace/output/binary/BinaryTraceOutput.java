@@ -0,0 +1,384 @@
+package com.github.liuyueyi.hhui.components.trace.output.binary;
+
+import com.github.liuyueyi.hhui.components.trace.mdc.MdcUtil;
+import com.github.liuyueyi.hhui.components.trace.output.CostOutput;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSpan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+import static com.github.liuyueyi.hhui.components.trace.output.binary.BinaryTraceFormat.*;
+
+/**
+ * 二进制格式的trace输出，将每个trace的完整执行树追加写入内存映射的滚动文件中，用于事后排查
+ * <p>
+ * - 文件预分配固定大小并映射到内存，写满之后滚动到新文件，超过 maxFiles 时删除最早的文件
+ * - 任务名通过每个文件独立的字典转换为id，记录中只保存 varint 编码的id与纳秒耗时，远小于文本日志
+ * - 多线程写入时，先在线程本地的缓冲区完成编码，再通过一次 getAndAdd 抢占文件中的区间并拷贝，不加锁；
+ * 只有首次出现的任务名与文件滚动才会进入同步块
+ * <p>
+ * 使用方式: TraceWatch.registerOutput(new BinaryTraceOutput(Paths.get("logs/trace")))，
+ * 文件通过 {@link BinaryTraceReader} 转换为文本或json
+ *
+ * @author YiHui
+ * @date 2024/9/13
+ */
+public class BinaryTraceOutput implements CostOutput, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(BinaryTraceOutput.class);
+
+    /**
+     * 默认单个文件 64MB
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    /**
+     * 默认最多保留的文件数
+     */
+    public static final int DEFAULT_MAX_FILES = 16;
+
+    private static final DateTimeFormatter FILE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS");
+
+    private final Path dir;
+    private final String prefix;
+    private final int segmentSize;
+    private final int maxFiles;
+
+    private final ThreadLocal<Encoder> encoders = ThreadLocal.withInitial(Encoder::new);
+
+    /**
+     * 已经写入的文件，从旧到新，受 this 保护
+     */
+    private final Deque<Path> files = new ArrayDeque<>();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private volatile Segment current;
+
+    private volatile boolean closed;
+
+    private int seq;
+
+    public BinaryTraceOutput(Path dir) {
+        this(dir, "trace", DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_FILES);
+    }
+
+    /**
+     * @param dir         文件目录
+     * @param prefix      文件名前缀
+     * @param segmentSize 单个文件的大小，字节
+     * @param maxFiles    最多保留的文件数，包含目录中已有的同前缀文件
+     */
+    public BinaryTraceOutput(Path dir, String prefix, int segmentSize, int maxFiles) {
+        if (segmentSize < 4096) {
+            throw new IllegalArgumentException("segmentSize must be at least 4096, but was " + segmentSize);
+        }
+        if (maxFiles < 1) {
+            throw new IllegalArgumentException("maxFiles must be positive, but was " + maxFiles);
+        }
+        this.dir = dir;
+        this.prefix = prefix;
+        this.segmentSize = segmentSize;
+        this.maxFiles = maxFiles;
+    }
+
+    @Override
+    public void output(Map<String, Long> cost, String traceName) {
+        Map<String, Long> nanos = new LinkedHashMap<>(cost.size() << 1);
+        cost.forEach((k, v) -> nanos.put(k, TimeUnit.MILLISECONDS.toNanos(v)));
+        outputNanos(nanos, traceName);
+    }
+
+    /**
+     * 只有聚合耗时时，将各个任务作为根节点的直接子节点记录
+     */
+    @Override
+    public void outputNanos(Map<String, Long> cost, String traceName) {
+        List<TraceSpan> spans = new ArrayList<>(cost.size() + 1);
+        spans.add(new TraceSpan(0, TraceSpan.NO_PARENT, traceName, false, 0, cost.getOrDefault(traceName, 0L)));
+        cost.forEach((k, v) -> {
+            if (!k.equals(traceName)) {
+                spans.add(new TraceSpan(spans.size(), 0, k, false, 0, v));
+            }
+        });
+        write(System.currentTimeMillis(), traceName, MdcUtil.getGlobalTraceId(), spans);
+    }
+
+    @Override
+    public void output(TraceSnapshot snapshot) {
+        write(snapshot.getTimestamp(), snapshot.getTraceName(), snapshot.getTraceId(), snapshot.getSpans());
+    }
+
+    private void write(long timestamp, String traceName, String traceId, List<TraceSpan> spans) {
+        if (closed) {
+            dropped.increment();
+            return;
+        }
+        Encoder encoder = encoders.get();
+        try {
+            Segment segment = current;
+            if (segment == null) {
+                segment = roll(null);
+            }
+            long required = -1;
+            while (segment != null) {
+                // 名称字典属于单个文件，滚动之后需要基于新文件重新编码
+                if (encode(encoder, segment::nameId, timestamp, traceName, traceId, spans) && segment.append(encoder, TYPE_TRACE)) {
+                    return;
+                }
+                if (required < 0) {
+                    // 首次写不下时，计算在空文件中需要的空间，空文件也写不下时直接丢弃；否则是被其他线程写满了，换新文件重试
+                    required = requiredSize(encoder, timestamp, traceName, traceId, spans);
+                    if (required > segmentSize - FILE_HEADER_SIZE) {
+                        log.warn("trace {} is too large for binary output: {} bytes", traceName, required);
+                        break;
+                    }
+                }
+                segment = roll(segment);
+            }
+        } catch (IOException e) {
+            log.error("failed to write binary trace: {}", traceName, e);
+        }
+        dropped.increment();
+    }
+
+    /**
+     * 编码trace记录，文件剩余空间不足以写入新的字典项时返回false
+     *
+     * @param names 名称 -> 字典id，返回负数表示无法写入
+     */
+    private static boolean encode(Encoder encoder, ToIntFunction<String> names, long timestamp, String traceName,
+                                  String traceId, List<TraceSpan> spans) {
+        int traceNameId = names.applyAsInt(traceName);
+        if (traceNameId < 0) {
+            return false;
+        }
+        encoder.reset().pos = RECORD_HEADER_SIZE;
+        encoder.writeLong(timestamp);
+        encoder.writeVarLong(traceNameId);
+        encoder.writeString(traceId);
+        encoder.writeVarLong(spans.size());
+        for (TraceSpan span : spans) {
+            int nameId = names.applyAsInt(span.getName());
+            if (nameId < 0) {
+                return false;
+            }
+            int flags = (span.isAsync() ? FLAG_ASYNC : 0)
+                    | (span.isTimeout() ? FLAG_TIMEOUT : 0)
+                    | (span.isCallerRuns() ? FLAG_CALLER_RUNS : 0);
+            encoder.writeVarLong(span.getId());
+            encoder.writeVarLong(span.getParentId() + 1);
+            encoder.writeVarLong(nameId);
+            encoder.writeVarLong(Math.max(0, span.getStartOffset()));
+            encoder.writeVarLong(Math.max(0, span.getCost()));
+            encoder.writeVarLong(Math.max(0, span.getQueueCost()));
+            encoder.writeByte(flags);
+        }
+        return true;
+    }
+
+    /**
+     * 在一个空文件中写入这条记录需要的空间，即记录本身加上所有名称的字典项
+     */
+    private static long requiredSize(Encoder encoder, long timestamp, String traceName, String traceId,
+                                     List<TraceSpan> spans) {
+        Map<String, Integer> ids = new HashMap<>();
+        Encoder dictEncoder = new Encoder();
+        long[] dictSize = new long[1];
+        encode(encoder, name -> ids.computeIfAbsent(name == null ? "" : name, k -> {
+            dictEncoder.reset().pos = RECORD_HEADER_SIZE;
+            dictEncoder.writeVarLong(ids.size());
+            dictEncoder.writeString(k);
+            dictSize[0] += align(dictEncoder.pos);
+            return ids.size();
+        }), timestamp, traceName, traceId, spans);
+        return dictSize[0] + align(encoder.pos);
+    }
+
+    /**
+     * 当前文件已满时，创建新的文件；并发滚动时只有一个线程真正创建，其他线程直接使用新文件
+     *
+     * @param full 已满的文件
+     * @return 新文件，关闭之后返回null
+     */
+    private synchronized Segment roll(Segment full) throws IOException {
+        if (closed) {
+            return null;
+        }
+        if (current != full) {
+            return current;
+        }
+        if (files.isEmpty()) {
+            Files.createDirectories(dir);
+            loadExistFiles();
+        }
+        Path path;
+        do {
+            path = dir.resolve(prefix + "-" + LocalDateTime.now().format(FILE_TIME_FORMAT) + "-" + (seq++) + FILE_SUFFIX);
+        } while (Files.exists(path));
+        Segment segment = new Segment(path, segmentSize);
+        files.addLast(path);
+        while (files.size() > maxFiles) {
+            Path old = files.removeFirst();
+            try {
+                Files.deleteIfExists(old);
+            } catch (IOException e) {
+                log.warn("failed to delete expired trace file: {}", old, e);
+            }
+        }
+        current = segment;
+        return segment;
+    }
+
+    private void loadExistFiles() throws IOException {
+        List<Path> exists = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix + "-*" + FILE_SUFFIX)) {
+            stream.forEach(exists::add);
+        }
+        exists.sort(null);
+        files.addAll(exists);
+    }
+
+    /**
+     * 将当前文件的内容刷到磁盘
+     */
+    public void flush() {
+        Segment segment = current;
+        if (segment != null) {
+            segment.buffer.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        flush();
+        current = null;
+    }
+
+    /**
+     * @return 因为关闭、写入异常或记录过大而丢弃的trace数
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return 当前正在写入的文件
+     */
+    public Path getCurrentFile() {
+        Segment segment = current;
+        return segment == null ? null : segment.path;
+    }
+
+    /**
+     * 单个映射文件
+     */
+    private static class Segment {
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+
+        /**
+         * 下一条记录的写入位置，写满之后可能超过 capacity
+         */
+        private final AtomicLong position = new AtomicLong(FILE_HEADER_SIZE);
+
+        /**
+         * 名称 -> id，新增时受 this 保护，且在对应的字典记录写入之后才可见
+         */
+        private final Map<String, Integer> dict = new ConcurrentHashMap<>();
+        private final Encoder dictEncoder = new Encoder();
+        private int nextId;
+
+        Segment(Path path, int capacity) throws IOException {
+            this.path = path;
+            this.capacity = capacity;
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+                 FileChannel channel = file.getChannel()) {
+                // 关闭channel之后，映射依然有效
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+            buffer.putInt(0, FILE_MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, System.currentTimeMillis());
+        }
+
+        /**
+         * @return 名称对应的id，文件剩余空间不足时返回 -1
+         */
+        int nameId(String name) {
+            if (name == null) {
+                name = "";
+            }
+            Integer id = dict.get(name);
+            if (id != null) {
+                return id;
+            }
+            synchronized (this) {
+                id = dict.get(name);
+                if (id != null) {
+                    return id;
+                }
+                dictEncoder.reset().pos = RECORD_HEADER_SIZE;
+                dictEncoder.writeVarLong(nextId);
+                dictEncoder.writeString(name);
+                if (!append(dictEncoder, TYPE_DICT)) {
+                    return -1;
+                }
+                dict.put(name, nextId);
+                return nextId++;
+            }
+        }
+
+        /**
+         * 抢占一段空间并写入记录，记录头最后写入，读取时只认头部完整的记录
+         *
+         * @return 剩余空间不足时返回false
+         */
+        boolean append(Encoder encoder, byte type) {
+            int len = align(encoder.pos);
+            long offset = position.getAndAdd(len);
+            if (offset + len > capacity) {
+                return false;
+            }
+            int start = (int) offset;
+            int bodyLen = encoder.pos - RECORD_HEADER_SIZE;
+            ByteBuffer view = buffer.duplicate();
+            view.position(start + RECORD_HEADER_SIZE);
+            view.put(encoder.buf, RECORD_HEADER_SIZE, bodyLen);
+            view.putInt(start + 8, checksum(ByteBuffer.wrap(encoder.buf, RECORD_HEADER_SIZE, bodyLen)));
+            view.putInt(start + 12, bodyLen);
+            view.putInt(start + 4, len);
+            view.put(start + 2, type);
+            view.putShort(start, RECORD_MAGIC);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.github.liuyueyi.hhui.components.trace.output.binary;
+
+import com.github.liuyueyi.hhui.components.trace.output.JsonUtil;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSpan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.github.liuyueyi.hhui.components.trace.output.binary.BinaryTraceFormat.*;
+
+/**
+ * 读取 {@link BinaryTraceOutput} 写入的二进制文件，还原为执行快照，并支持转换为文本或json
+ * <p>
+ * 命令行: java -cp trace-watch-dog.jar com.github.liuyueyi.hhui.components.trace.output.binary.BinaryTraceReader [--json] 文件或目录...
+ * <p>
+ * 进程异常退出时，文件中可能存在未写完的记录，读取时直接跳过；只有类型、长度与校验和都匹配的记录才会被读取
+ *
+ * @author YiHui
+ * @date 2024/9/13
+ */
+public class BinaryTraceReader {
+    private static final Logger log = LoggerFactory.getLogger(BinaryTraceReader.class);
+
+    private BinaryTraceReader() {
+    }
+
+    /**
+     * 读取文件或目录下的所有trace文件，按照文件名(即创建时间)排序
+     * <p>
+     * 读取目录时，不是trace格式(或头部不完整)的 .bin 文件记录日志后跳过，不影响其他文件
+     *
+     * @param path 文件或目录
+     * @return 执行快照
+     */
+    public static List<TraceSnapshot> readAll(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return read(path);
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path, "*" + FILE_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        List<TraceSnapshot> result = new ArrayList<>();
+        for (Path file : files) {
+            try {
+                result.addAll(read(file));
+            } catch (IOException e) {
+                log.warn("skip unreadable binary trace file: {}", file, e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 读取单个trace文件，同一个文件中的记录按照写入位置排序
+     *
+     * @param file 文件
+     * @return 执行快照
+     */
+    public static List<TraceSnapshot> read(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int limit = buffer.limit();
+        if (limit < FILE_HEADER_SIZE || buffer.getInt(0) != FILE_MAGIC) {
+            throw new IOException("not a binary trace file: " + file);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("unsupported binary trace version " + buffer.getInt(4) + ": " + file);
+        }
+
+        // 字典与trace记录可能交错写入，先收集完整的字典，再解析trace
+        Map<Integer, String> dict = new HashMap<>();
+        List<Integer> traces = new ArrayList<>();
+        int pos = FILE_HEADER_SIZE;
+        while (pos + RECORD_HEADER_SIZE <= limit) {
+            if (!isRecord(buffer, pos, limit)) {
+                // 未写入或未写完的区间，也可能是头部缺失的记录的内容
+                pos += ALIGN;
+                continue;
+            }
+            byte type = buffer.get(pos + 2);
+            if (type == TYPE_DICT) {
+                try {
+                    ByteBuffer body = body(buffer, pos);
+                    int id = readVarInt(body);
+                    dict.put(id, readString(body));
+                } catch (RuntimeException e) {
+                    // 损坏的记录，忽略
+                }
+            } else {
+                traces.add(pos);
+            }
+            pos += buffer.getInt(pos + 4);
+        }
+
+        List<TraceSnapshot> result = new ArrayList<>(traces.size());
+        for (int start : traces) {
+            try {
+                result.add(decode(body(buffer, start), dict));
+            } catch (RuntimeException e) {
+                // 损坏的记录，忽略
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 校验记录头：magic、类型、对齐之后的总长度与内容长度一致，并且内容的校验和匹配
+     */
+    private static boolean isRecord(ByteBuffer buffer, int pos, int limit) {
+        if (buffer.getShort(pos) != RECORD_MAGIC) {
+            return false;
+        }
+        byte type = buffer.get(pos + 2);
+        if (type != TYPE_DICT && type != TYPE_TRACE) {
+            return false;
+        }
+        int len = buffer.getInt(pos + 4);
+        int bodyLen = buffer.getInt(pos + 12);
+        if (len < RECORD_HEADER_SIZE || len % ALIGN != 0 || len > limit - pos
+                || bodyLen < 0 || align(RECORD_HEADER_SIZE + bodyLen) != len) {
+            return false;
+        }
+        return checksum(body(buffer, pos)) == buffer.getInt(pos + 8);
+    }
+
+    private static ByteBuffer body(ByteBuffer buffer, int pos) {
+        ByteBuffer body = buffer.duplicate();
+        body.limit(pos + RECORD_HEADER_SIZE + buffer.getInt(pos + 12)).position(pos + RECORD_HEADER_SIZE);
+        return body;
+    }
+
+    private static TraceSnapshot decode(ByteBuffer body, Map<Integer, String> dict) {
+        long timestamp = body.getLong();
+        String traceName = name(dict, readVarInt(body));
+        String traceId = readString(body);
+        int size = readVarInt(body);
+        List<TraceSpan> spans = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int id = readVarInt(body);
+            int parentId = readVarInt(body) - 1;
+            String name = name(dict, readVarInt(body));
+            long startOffset = readVarLong(body);
+            long cost = readVarLong(body);
+            long queueCost = readVarLong(body);
+            int flags = body.get();
+            TraceSpan span = new TraceSpan(id, parentId, name, (flags & FLAG_ASYNC) != 0, startOffset, cost,
+                    (flags & FLAG_TIMEOUT) != 0, queueCost);
+            if ((flags & FLAG_CALLER_RUNS) != 0) {
+                span.markCallerRuns();
+            }
+            spans.add(span);
+        }
+        return TraceSnapshot.of(traceName, traceId, timestamp, spans);
+    }
+
+    private static String name(Map<Integer, String> dict, int id) {
+        String name = dict.get(id);
+        return name == null ? "#" + id : name;
+    }
+
+    /**
+     * 文本格式，按照执行树缩进展示
+     *
+     * <pre>
+     * 2024-09-13 10:00:00.123 traceId=xxx trace=查询 cost=12.345ms
+     *   查询 cost=12.345ms
+     *     task1(异步) start=+0.020ms cost=10.001ms queue=0.010ms
+     * </pre>
+     */
+    public static String toText(TraceSnapshot snapshot) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(snapshot.getTimestamp())))
+                .append(" traceId=").append(snapshot.getTraceId())
+                .append(" trace=").append(snapshot.getTraceName())
+                .append(" cost=");
+        appendMillis(sb, snapshot.getTotalCost());
+        appendText(sb, snapshot.getRoot(), 1);
+        return sb.toString();
+    }
+
+    private static void appendText(StringBuilder sb, TraceSpan span, int depth) {
+        sb.append('\n');
+        for (int i = 0; i < depth; i++) {
+            sb.append("  ");
+        }
+        sb.append(span.getName());
+        if (span.getParentId() != TraceSpan.NO_PARENT) {
+            sb.append(" start=+");
+            appendMillis(sb, span.getStartOffset());
+        }
+        sb.append(" cost=");
+        appendMillis(sb, span.getCost());
+        if (span.getQueueCost() > 0) {
+            sb.append(" queue=");
+            appendMillis(sb, span.getQueueCost());
+        }
+        if (span.isCallerRuns()) {
+            sb.append(" [callerRuns]");
+        }
+        if (span.isTimeout()) {
+            sb.append(" [timeout]");
+        }
+        for (TraceSpan child : span.getChildren()) {
+            appendText(sb, child, depth + 1);
+        }
+    }
+
+    private static void appendMillis(StringBuilder sb, long nanos) {
+        sb.append(nanos / 1_000_000).append('.');
+        long fraction = nanos % 1_000_000 / 1000;
+        if (fraction < 100) {
+            sb.append(fraction < 10 ? "00" : "0");
+        }
+        sb.append(fraction).append("ms");
+    }
+
+    /**
+     * json格式，一个trace一行，耗时单位为纳秒
+     */
+    public static String toJson(TraceSnapshot snapshot) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"timestamp\":").append(snapshot.getTimestamp())
+                .append(",\"traceId\":");
+        JsonUtil.appendString(sb, snapshot.getTraceId());
+        sb.append(",\"traceName\":");
+        JsonUtil.appendString(sb, snapshot.getTraceName());
+        sb.append(",\"cost\":").append(snapshot.getTotalCost())
+                .append(",\"spans\":[");
+        boolean first = true;
+        for (TraceSpan span : snapshot.getSpans()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append("{\"id\":").append(span.getId())
+                    .append(",\"parentId\":").append(span.getParentId())
+                    .append(",\"name\":");
+            JsonUtil.appendString(sb, span.getName());
+            sb.append(",\"async\":").append(span.isAsync())
+                    .append(",\"startOffset\":").append(span.getStartOffset())
+                    .append(",\"cost\":").append(span.getCost())
+                    .append(",\"queueCost\":").append(span.getQueueCost())
+                    .append(",\"timeout\":").append(span.isTimeout())
+                    .append(",\"callerRuns\":").append(span.isCallerRuns())
+                    .append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean json = false;
+        List<Path> paths = new ArrayList<>();
+        for (String arg : args) {
+            if ("--json".equals(arg)) {
+                json = true;
+            } else {
+                paths.add(Paths.get(arg));
+            }
+        }
+        if (paths.isEmpty()) {
+            System.err.println("usage: BinaryTraceReader [--json] <file|dir>...");
+            System.exit(1);
+        }
+        PrintStream out = System.out;
+        for (Path path : paths) {
+            for (TraceSnapshot snapshot : readAll(path)) {
+                out.println(json ? toJson(snapshot) : toText(snapshot));
+            }
+        }
+    }
+}
@@ -1,22 +1,32 @@
 package com.github.liuyueyi.hhui.components.trace.recoder;
 
-import com.alibaba.ttl.threadpool.TtlExecutors;
 import com.github.liuyueyi.hhui.components.trace.TraceWatch;
 import com.github.liuyueyi.hhui.components.trace.async.AsyncUtil;
+import com.github.liuyueyi.hhui.components.trace.async.TraceExecutor;
+import com.github.liuyueyi.hhui.components.trace.clock.TraceClock;
+import com.github.liuyueyi.hhui.components.trace.context.TraceContext;
 import com.github.liuyueyi.hhui.components.trace.mdc.MdcUtil;
+import com.github.liuyueyi.hhui.components.trace.output.AsyncOutputDispatcher;
 import com.github.liuyueyi.hhui.components.trace.output.CostOutput;
 import com.github.liuyueyi.hhui.components.trace.output.LogOutput;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSpan;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Supplier;
 
 /**
@@ -28,24 +38,55 @@ import java.util.function.Supplier;
 public class DefaultTraceRecoder implements ITraceRecoder {
     private static final Logger log = LoggerFactory.getLogger(DefaultTraceRecoder.class);
 
+    /**
+     * 当前线程正在执行的任务，用于识别嵌套调用的父子关系
+     */
+    private static final ThreadLocal<ActiveSpan> ACTIVE_SPAN = ThreadLocal.withInitial(ActiveSpan::new);
+
+    /**
+     * 根节点，即trace本身的任务id
+     */
+    private static final int ROOT_ID = 0;
+
+    /**
+     * 提交失败(如被线程池拒绝)的异步任务不会执行，登记这个已完成的 future，等待时直接跳过
+     */
+    private static final CompletableFuture<Void> NOT_SUBMITTED = CompletableFuture.completedFuture(null);
+
+    /**
+     * 异步任务名的后缀，区分同步执行与异步执行
+     */
+    public static final String ASYNC_SUFFIX = "(异步)";
+
+    /**
+     * 当前线程回收的记录器，开启回收之后，同一个线程上的请求可以复用记录器及其内部的存储
+     */
+    private static final ThreadLocal<DefaultTraceRecoder> RECYCLED = new ThreadLocal<>();
+
     /**
      * trace记录名
      */
-    private final String traceName;
+    private String traceName;
 
     /**
-     * 异步任务执行的结果
+     * 所有任务的执行记录及异步任务的执行结果，以任务id为下标，根据父子关系组成一棵执行树
      */
-    private final List<CompletableFuture<?>> list;
+    private final SpanStore store;
+
     /**
-     * 一个子任务的执行耗时
+     * 计时使用的时钟
      */
-    private final Map<String, Long> cost;
+    private TraceClock clock;
 
     /**
      * 异步调度的线程池
      */
-    private final ExecutorService executorService;
+    private ExecutorService executorService;
+
+    /**
+     * 开启trace时的上下文，负责将记录器传递到异步任务的执行线程
+     */
+    private TraceContext context;
 
     /**
      * 用于标记是否所有的任务执行完毕
@@ -53,6 +94,11 @@ public class DefaultTraceRecoder implements ITraceRecoder {
      */
     private volatile boolean markExecuteOver;
 
+    /**
+     * 开始等待异步任务的时间，在此之前提交线程一直在执行自己的任务，-1 表示还没有开始等待
+     */
+    private long joinStart;
+
     /**
      * 控制是否打印日志的条件
      */
@@ -63,25 +109,98 @@ public class DefaultTraceRecoder implements ITraceRecoder {
      */
     private Runnable endHook;
 
+    /**
+     * 当前记录器额外添加的输出，全局的输出重定向规则直接使用 TraceWatch 中的配置，不再复制一份
+     */
     private List<CostOutput> outputList;
 
+    /**
+     * 是否允许在结束之后被回收复用
+     */
+    private boolean recyclable;
+
+    /**
+     * 等待异步任务执行完毕的超时时间，为null时一直等待
+     */
+    private Duration timeout;
+
+    /**
+     * 等待超时时，仍未执行完毕的任务数
+     */
+    private int timeoutCount;
+
+    /**
+     * 慢trace的阈值，纳秒，小于等于0表示不限制
+     */
+    private long slowThreshold;
+
+    /**
+     * 当前trace的任务耗时预算，纳秒，为null时使用全局配置
+     */
+    private Map<String, Long> taskBudgets;
+
     public DefaultTraceRecoder() {
-        this(AsyncUtil.executorService, "TraceDog", true);
+        this(AsyncUtil.traceExecutor, "TraceDog", true);
     }
 
     public DefaultTraceRecoder(ExecutorService executorService, String task, boolean logEnable) {
+        this(executorService, task, logEnable, TraceWatch.getClock());
+    }
+
+    public DefaultTraceRecoder(ExecutorService executorService, String task, boolean logEnable, TraceClock clock) {
+        this(TraceExecutor.of(executorService), task, logEnable, clock);
+    }
+
+    public DefaultTraceRecoder(TraceExecutor executor, String task, boolean logEnable) {
+        this(executor, task, logEnable, TraceWatch.getClock());
+    }
+
+    public DefaultTraceRecoder(TraceExecutor executor, String task, boolean logEnable, TraceClock clock) {
+        this.store = new SpanStore();
+        init(executor, task, logEnable, clock);
+    }
+
+    /**
+     * 获取一个记录器，开启回收时优先复用当前线程上已经结束的记录器
+     *
+     * @param executor  线程池
+     * @param task      trace名
+     * @param logEnable 是否输出日志
+     * @return 记录器
+     */
+    public static DefaultTraceRecoder obtain(TraceExecutor executor, String task, boolean logEnable) {
+        if (!TraceWatch.isRecoderRecycle()) {
+            return new DefaultTraceRecoder(executor, task, logEnable);
+        }
+
+        DefaultTraceRecoder recoder = RECYCLED.get();
+        if (recoder == null) {
+            recoder = new DefaultTraceRecoder(executor, task, logEnable);
+        } else {
+            RECYCLED.remove();
+            recoder.init(executor, task, logEnable, TraceWatch.getClock());
+        }
+        recoder.recyclable = true;
+        return recoder;
+    }
+
+    private void init(TraceExecutor executor, String task, boolean logEnable, TraceClock clock) {
         this.traceName = task;
-        list = new CopyOnWriteArrayList<>();
-        // 支持排序的耗时记录
-        cost = new ConcurrentSkipListMap<>();
-        this.executorService = TtlExecutors.getTtlExecutorService(executorService);
+        this.clock = clock;
+        this.context = TraceWatch.getContext();
+        this.executorService = executor.getExecutorService(context);
         this.markExecuteOver = false;
+        this.joinStart = -1;
         this.logEnable = logEnable;
-        this.outputList = new ArrayList<>();
-        // 默认加载全局的输出重定向规则
-        this.outputList.addAll(TraceWatch.getGlobalOutputStrategy());
+        this.outputList = null;
+        this.endHook = null;
+        this.recyclable = false;
+        this.timeout = TraceWatch.getDefaultTimeout();
+        this.timeoutCount = 0;
+        this.slowThreshold = TraceWatch.getSlowThreshold();
+        this.taskBudgets = null;
         MdcUtil.setGlobalTraceId(MdcUtil.fetchGlobalMsgIdForTraceRecoder());
-        start(task);
+        start(store.append(task, TraceSpan.NO_PARENT, false, 0));
     }
 
     /**
@@ -91,10 +210,65 @@ public class DefaultTraceRecoder implements ITraceRecoder {
      * @return
      */
     public DefaultTraceRecoder addOutput(CostOutput costOutput) {
+        if (outputList == null) {
+            outputList = new ArrayList<>(2);
+        }
         outputList.add(costOutput);
         return this;
     }
 
+    /**
+     * 设置当前trace等待异步任务的超时时间，覆盖全局的默认配置
+     *
+     * @param timeout 超时时间，null 表示一直等待
+     * @return
+     */
+    public DefaultTraceRecoder setTimeout(Duration timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * 设置当前trace的慢trace阈值，覆盖全局配置；总耗时超过阈值，或者有任务超过耗时预算时，才输出日志
+     *
+     * @param threshold 阈值，null 表示不限制
+     * @return
+     */
+    public DefaultTraceRecoder setSlowThreshold(Duration threshold) {
+        this.slowThreshold = threshold == null ? 0 : threshold.toNanos();
+        return this;
+    }
+
+    /**
+     * 设置当前trace中任务的耗时预算，在全局配置的基础上覆盖
+     *
+     * @param task   任务名，异步任务不需要带上 (异步) 后缀
+     * @param budget 耗时预算，null 表示移除
+     * @return
+     */
+    public DefaultTraceRecoder setTaskBudget(String task, Duration budget) {
+        if (taskBudgets == null) {
+            taskBudgets = new HashMap<>(TraceWatch.getTaskBudgets());
+        }
+        if (budget == null) {
+            taskBudgets.remove(task);
+        } else {
+            taskBudgets.put(task, budget.toNanos());
+        }
+        return this;
+    }
+
+    protected ExecutorService getExecutorService() {
+        return executorService;
+    }
+
+    /**
+     * @return 等待超时时，仍未执行完毕的任务数
+     */
+    public int getTimeoutCount() {
+        return timeoutCount;
+    }
+
     /**
      * 异步执行，带返回结果
      *
@@ -104,8 +278,15 @@ public class DefaultTraceRecoder implements ITraceRecoder {
      */
     @Override
     public <T> CompletableFuture<T> async(Supplier<T> supplier, String name) {
-        CompletableFuture<T> ans = CompletableFuture.supplyAsync(supplyWithTime(supplier, name + "(异步)"), this.executorService);
-        list.add(ans);
+        int id = register(name + ASYNC_SUFFIX, true);
+        CompletableFuture<T> ans;
+        try {
+            ans = fork(context.bind(this, supplyWithTime(supplier, id, Thread.currentThread())));
+        } catch (RuntimeException | Error e) {
+            track(id, NOT_SUBMITTED);
+            throw e;
+        }
+        track(id, ans);
         return ans;
     }
 
@@ -119,7 +300,7 @@ public class DefaultTraceRecoder implements ITraceRecoder {
      */
     @Override
     public <T> T sync(Supplier<T> supplier, String name) {
-        return supplyWithTime(supplier, name).get();
+        return supplyWithTime(supplier, register(name, false), null).get();
     }
 
     /**
@@ -133,11 +314,38 @@ public class DefaultTraceRecoder implements ITraceRecoder {
     public CompletableFuture<Void> async(Runnable run, String name) {
         // 添加一个标识，区分同步执行与异步执行
         // 异步任务的执行，在整体的耗时占比只能作为参考
-        CompletableFuture<Void> future = CompletableFuture.runAsync(runWithTime(run, name + "(异步)"), this.executorService);
-        list.add(future);
+        int id = register(name + ASYNC_SUFFIX, true);
+        CompletableFuture<Void> future;
+        try {
+            future = fork(context.bind(this, runWithTime(run, id, Thread.currentThread())));
+        } catch (RuntimeException | Error e) {
+            track(id, NOT_SUBMITTED);
+            throw e;
+        }
+        track(id, future);
         return future;
     }
 
+    /**
+     * 将已经封装好耗时记录的任务提交到线程池
+     *
+     * @param supplier 任务
+     * @return 异步执行结果
+     */
+    protected <T> CompletableFuture<T> fork(Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(supplier, this.executorService);
+    }
+
+    /**
+     * 将已经封装好耗时记录的任务提交到线程池
+     *
+     * @param run 任务
+     * @return 异步执行结果
+     */
+    protected CompletableFuture<Void> fork(Runnable run) {
+        return CompletableFuture.runAsync(run, this.executorService);
+    }
+
     /**
      * 同步执行，无返回结果
      *
@@ -147,26 +355,34 @@ public class DefaultTraceRecoder implements ITraceRecoder {
      */
     @Override
     public void sync(Runnable run, String name) {
-        runWithTime(run, name).run();
+        runWithTime(run, register(name, false), null).run();
     }
 
     /**
      * 封装一下执行业务逻辑，记录耗时时间
      *
-     * @param run  执行的具体业务逻辑
-     * @param name 任务名
+     * @param run       执行的具体业务逻辑
+     * @param id        任务id
+     * @param submitter 提交异步任务的线程，同步任务传null
      * @return
      */
-    private Runnable runWithTime(Runnable run, String name) {
+    private Runnable runWithTime(Runnable run, int id, Thread submitter) {
         String traceId = MdcUtil.fetchGlobalMsgIdForTraceRecoder();
+        int parentId = currentSpanId();
         return () -> {
             // 将父线程的msgId设置到当前这个执行线程
             MdcUtil.setGlobalTraceId(traceId);
-            start(name);
+            start(id, submitter);
+            ActiveSpan active = ACTIVE_SPAN.get();
+            DefaultTraceRecoder lastOwner = active.owner;
+            int lastSpanId = active.spanId;
+            active.enter(this, id < 0 ? parentId : id);
             try {
                 run.run();
             } finally {
-                end(name);
+                active.owner = lastOwner;
+                active.spanId = lastSpanId;
+                end(id);
             }
         };
     }
@@ -174,62 +390,222 @@ public class DefaultTraceRecoder implements ITraceRecoder {
     /**
      * 封装一下执行业务逻辑，记录耗时时间
      *
-     * @param call 执行的具体业务逻辑
-     * @param name 任务名
+     * @param call      执行的具体业务逻辑
+     * @param id        任务id
+     * @param submitter 提交异步任务的线程，同步任务传null
      * @return 返回结果
      */
-    private <T> Supplier<T> supplyWithTime(Supplier<T> call, String name) {
+    private <T> Supplier<T> supplyWithTime(Supplier<T> call, int id, Thread submitter) {
         String traceId = MdcUtil.fetchGlobalMsgIdForTraceRecoder();
+        int parentId = currentSpanId();
         return () -> {
             // 将父线程的msgId设置到当前这个执行线程
             MdcUtil.setGlobalTraceId(traceId);
-            start(name);
+            start(id, submitter);
+            ActiveSpan active = ACTIVE_SPAN.get();
+            DefaultTraceRecoder lastOwner = active.owner;
+            int lastSpanId = active.spanId;
+            // 任务未被记录时（如所有任务执行完毕之后再提交的任务），嵌套的任务挂在父任务下
+            active.enter(this, id < 0 ? parentId : id);
             try {
                 return call.get();
             } finally {
-                end(name);
+                active.owner = lastOwner;
+                active.spanId = lastSpanId;
+                end(id);
             }
         };
     }
 
+    /**
+     * 当前线程上，属于这个记录器的正在执行的任务
+     *
+     * @return 任务id，不在任何任务中时，返回根节点
+     */
+    private int currentSpanId() {
+        ActiveSpan active = ACTIVE_SPAN.get();
+        return active.owner == this ? active.spanId : ROOT_ID;
+    }
 
-    private void start(String name) {
+    /**
+     * 登记一个任务，父任务在提交的线程上确定，因此异步任务也可以挂到提交它的任务下面
+     *
+     * @param name  任务名
+     * @param async 是否异步
+     * @return 任务id，所有任务执行完毕之后再提交的任务返回 -1，不参与记录
+     */
+    private int register(String name, boolean async) {
         if (markExecuteOver) {
             // 所有任务执行完毕，不再新增
             if (log.isDebugEnabled()) {
                 log.debug("allTask ExecuteOver ignore: {}", name);
             }
-            return;
+            return -1;
+        }
+        // 异步任务记录提交时间，用于区分线程池中的排队耗时与执行耗时
+        return store.append(name, currentSpanId(), async, async ? clock.nanoTime() : 0);
+    }
+
+    private void track(int id, CompletableFuture<?> future) {
+        if (id >= 0) {
+            store.future(id, future);
+        }
+    }
+
+    private void start(int id) {
+        if (id >= 0) {
+            store.start(id, clock.nanoTime());
+        }
+    }
+
+    private void start(int id, Thread submitter) {
+        if (submitter == Thread.currentThread() && id >= 0) {
+            // 异步任务在提交线程中执行，说明线程池已满，被拒绝策略退化为同步执行(CallerRunsPolicy)
+            store.callerRuns(id);
         }
-        cost.put(name, System.currentTimeMillis());
+        start(id);
     }
 
-    private void end(String name) {
-        long now = System.currentTimeMillis();
-        long last = cost.getOrDefault(name, now);
-        if (last >= now / 1000) {
-            // 之前存储的是时间戳，因此我们需要更新成执行耗时 ms单位
-            cost.put(name, now - last);
+    private void end(int id) {
+        if (id >= 0) {
+            store.end(id, clock.nanoTime());
         }
     }
 
 
     /**
-     * 等待所有的任务执行完毕
+     * 等待所有的任务执行完毕，超时时间使用 setTimeout 或全局的默认配置
      *
      * @return
      */
     @Override
     public DefaultTraceRecoder allExecuted() {
-        if (!list.isEmpty()) {
-            CompletableFuture.allOf(list.toArray(new CompletableFuture[]{})).join();
+        return allExecuted(timeout);
+    }
+
+    /**
+     * 等待所有的任务执行完毕，超时之后直接返回
+     * 未执行完毕的任务标记为超时，耗时记录到超时的时刻，之后这些任务的执行结束不再被记录
+     *
+     * @param timeout 最长等待时间，null 表示一直等待
+     * @return
+     */
+    @Override
+    public DefaultTraceRecoder allExecuted(Duration timeout) {
+        if (this.markExecuteOver) {
+            // 已经结束(或超时)，不再重复等待
+            return this;
+        }
+        if (joinStart < 0) {
+            joinStart = clock.nanoTime();
+        }
+        if (!joinAll(timeout == null ? -1 : System.nanoTime() + timeout.toNanos())) {
+            // 先停止新增任务，再标记超时，避免超时之后新登记的任务一直处于未执行的状态
+            this.markExecuteOver = true;
+            markTimeout();
         }
         // 记录整体结束
-        end(this.traceName);
+        end(ROOT_ID);
         this.markExecuteOver = true;
         return this;
     }
 
+    /**
+     * 等待全部的异步任务执行完毕
+     * 异步任务中可能继续提交异步任务，因此需要一直等到没有新增的任务为止
+     *
+     * @param deadline 截止时间(System.nanoTime)，小于0表示一直等待
+     * @return false 表示超时
+     */
+    private boolean joinAll(long deadline) {
+        Throwable error = null;
+        int joined = 0;
+        int size;
+        while (joined < (size = store.size())) {
+            // 已经登记、但提交线程还没有保存 future 的第一个任务(如在完成回调、未被追踪的线程中提交的任务)
+            int pending = -1;
+            for (int i = joined; i < size; i++) {
+                CompletableFuture<?> future = store.future(i);
+                if (future == null) {
+                    if (pending < 0 && store.futurePending(i)) {
+                        pending = i;
+                    }
+                    continue;
+                }
+                try {
+                    if (deadline < 0) {
+                        // CompletableFuture#join 在 ForkJoinPool 的工作线程中等待时，线程池会补偿被阻塞的线程
+                        future.join();
+                    } else {
+                        future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    }
+                } catch (TimeoutException e) {
+                    return false;
+                } catch (InterruptedException e) {
+                    // 请求线程被中断，不再继续等待
+                    Thread.currentThread().interrupt();
+                    return false;
+                } catch (ExecutionException e) {
+                    if (error == null) {
+                        error = e.getCause();
+                    }
+                } catch (Throwable e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+            }
+            if (pending < 0) {
+                joined = size;
+            } else if (deadline >= 0 && System.nanoTime() - deadline >= 0) {
+                return false;
+            } else {
+                // 保存 future 只差几条指令，让出CPU之后从这个任务开始重新扫描，已经结束的任务不会再阻塞
+                Thread.yield();
+                joined = pending;
+            }
+        }
+        if (error != null) {
+            // 与 CompletableFuture.allOf 保持一致，所有任务都结束之后，再抛出异常
+            throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+        }
+        return true;
+    }
+
+    /**
+     * 将所有未执行完毕的任务标记为超时，当前线程正在执行的同步任务(及其父任务)除外
+     */
+    private void markTimeout() {
+        long now = clock.nanoTime();
+        int size = store.size();
+        for (int i = ROOT_ID + 1; i < size; i++) {
+            if (store.state(i) == SpanStore.STATE_FINISHED || isActive(i)) {
+                continue;
+            }
+            if (store.timeout(i, now)) {
+                timeoutCount++;
+            }
+        }
+        if (timeoutCount > 0) {
+            log.warn("trace {} wait timeout, {} tasks not finished", traceName, timeoutCount);
+        }
+    }
+
+    /**
+     * @param id 任务id
+     * @return true 表示任务为当前线程正在执行的任务，或者其祖先
+     */
+    private boolean isActive(int id) {
+        int current = currentSpanId();
+        while (current > ROOT_ID) {
+            if (current == id) {
+                return true;
+            }
+            current = store.parent(current);
+        }
+        return false;
+    }
+
     @Override
     public Map<String, Long> prettyPrint() {
         // 在格式化输出时，要求所有任务执行完毕
@@ -237,25 +613,172 @@ public class DefaultTraceRecoder implements ITraceRecoder {
             this.allExecuted();
         }
 
-        // 根据自定义规则，对耗时输出进行处理
-        outputList.forEach(o -> {
-            if (!logEnable && o == LogOutput.defaultLogOutput) {
-                return;
+        TraceSnapshot snapshot = snapshot();
+        // 异步输出时，快照会交给后台线程，因此需要先在当前线程中生成返回结果
+        Map<String, Long> ans = toMillis(snapshot.getCost());
+        output(snapshot, isLogRequired());
+        return ans;
+    }
+
+    /**
+     * 根据自定义规则，对耗时输出进行处理，默认加载全局的输出重定向规则
+     * 开启异步输出时，交给后台线程执行
+     *
+     * @param snapshot  执行快照
+     * @param logEnable 是否输出日志
+     */
+    private void output(TraceSnapshot snapshot, boolean logEnable) {
+        AsyncOutputDispatcher dispatcher = TraceWatch.getOutputDispatcher();
+        if (dispatcher == null || !dispatcher.isRunning()) {
+            AsyncOutputDispatcher.outputAll(snapshot, outputList, logEnable);
+        } else if (!dispatcher.publish(snapshot, outputList, logEnable) && !dispatcher.isRunning()) {
+            // 提交的同时调度器被关闭，在当前线程中输出；队列满被丢弃的不再输出
+            AsyncOutputDispatcher.outputAll(snapshot, outputList, logEnable);
+        }
+    }
+
+    /**
+     * 判断是否需要输出日志，直接基于原始记录判断，不需要生成快照
+     * <p>
+     * 未配置慢trace阈值与任务耗时预算时，全部输出；否则只有总耗时超过阈值、任一任务超过预算或者存在超时任务时才输出
+     *
+     * @return true 表示需要输出日志
+     */
+    private boolean isLogRequired() {
+        if (!logEnable) {
+            return false;
+        }
+        Map<String, Long> budgets = taskBudgets == null ? TraceWatch.getTaskBudgets() : taskBudgets;
+        if (slowThreshold <= 0 && budgets.isEmpty()) {
+            return true;
+        }
+        if (timeoutCount > 0) {
+            return true;
+        }
+        if (slowThreshold > 0 && store.end(ROOT_ID) - store.start(ROOT_ID) > slowThreshold) {
+            return true;
+        }
+        if (budgets.isEmpty()) {
+            return false;
+        }
+        int size = store.size();
+        for (int i = ROOT_ID + 1; i < size; i++) {
+            if (store.state(i) != SpanStore.STATE_FINISHED) {
+                continue;
+            }
+            String name = store.name(i);
+            Long budget = budgets.get(name);
+            if (budget == null && store.async(i) && name.endsWith(ASYNC_SUFFIX)) {
+                budget = budgets.get(name.substring(0, name.length() - ASYNC_SUFFIX.length()));
+            }
+            if (budget != null && store.end(i) - store.start(i) > budget) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true 表示存在日志以外的输出，即便不输出日志，也需要生成快照
+     */
+    private boolean hasNonLogOutput() {
+        if (outputList != null && !outputList.isEmpty()) {
+            return true;
+        }
+        for (CostOutput o : TraceWatch.getGlobalOutputStrategy()) {
+            if (!LogOutput.isLogOutput(o)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String threadName(Thread thread) {
+        String name = thread.getName();
+        // 虚拟线程默认没有名字
+        return name == null || name.isEmpty() ? "thread-" + thread.getId() : name;
+    }
+
+    /**
+     * 生成执行树快照，未执行完毕的任务不会被记录，等待超时的任务标记为超时
+     *
+     * @return 快照
+     */
+    public TraceSnapshot snapshot() {
+        if (!this.markExecuteOver) {
+            this.allExecuted();
+        }
+        int size = store.size();
+        long base = store.start(ROOT_ID);
+        List<TraceSpan> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int state = store.state(i);
+            if (state != SpanStore.STATE_FINISHED && state != SpanStore.STATE_TIMEOUT) {
+                continue;
+            }
+            long start = store.start(i);
+            boolean async = store.async(i);
+            long queue = async ? Math.max(0, start - store.submit(i)) : 0;
+            TraceSpan span = new TraceSpan(i, store.parent(i), store.name(i), async, start - base, store.end(i) - start,
+                    state == SpanStore.STATE_TIMEOUT, queue);
+            if (store.isCallerRuns(i)) {
+                span.markCallerRuns();
+            }
+            Thread thread = store.thread(i);
+            if (thread != null) {
+                span.markThread(threadName(thread), thread.getId());
             }
-            o.output(cost, traceName);
-        });
-        return cost;
+            list.add(span);
+        }
+        // 异步输出时，后台线程中拿不到请求的上下文，因此在生成快照时记录全链路id
+        return TraceSnapshot.of(traceName, MdcUtil.getGlobalTraceId(), list).markJoinStart(joinStart < 0 ? -1 : joinStart - base);
+    }
+
+    /**
+     * 对外返回的耗时分布，以 ms 为单位
+     *
+     * @param nanoCost 纳秒耗时
+     * @return ms 耗时
+     */
+    private static Map<String, Long> toMillis(Map<String, Long> nanoCost) {
+        Map<String, Long> ans = new LinkedHashMap<>(nanoCost.size() << 1);
+        nanoCost.forEach((k, v) -> ans.put(k, TimeUnit.NANOSECONDS.toMillis(v)));
+        return ans;
     }
 
     @Override
     public void close() {
         try {
             // 做一个兜底，避免业务侧没有手动结束，导致异步任务没有执行完就提前返回结果
-            this.allExecuted().prettyPrint();
+            this.allExecuted();
+            boolean logRequired = isLogRequired();
+            if (logRequired || hasNonLogOutput()) {
+                // 不需要输出时，连快照都不生成
+                output(snapshot(), logRequired);
+            }
         } catch (Exception e) {
             log.error("释放耗时上下文异常! {}", traceName, e);
         } finally {
             Optional.ofNullable(endHook).ifPresent(Runnable::run);
+            recycle();
+        }
+    }
+
+    /**
+     * 回收记录器，清空记录之后放回当前线程，下一次开启trace时复用
+     * 注意：回收之后，不要再继续使用之前拿到的记录器引用
+     */
+    private void recycle() {
+        // 超时的任务仍在执行，继续写入存储，因此不能复用
+        if (!recyclable || !markExecuteOver || timeoutCount > 0 || !TraceWatch.isRecoderRecycle()) {
+            return;
+        }
+        recyclable = false;
+        outputList = null;
+        endHook = null;
+        store.reset();
+        if (RECYCLED.get() == null) {
+            RECYCLED.set(this);
         }
     }
 
@@ -269,4 +792,17 @@ public class DefaultTraceRecoder implements ITraceRecoder {
         this.endHook = endHook;
         return this;
     }
+
+    /**
+     * 线程上正在执行的任务
+     */
+    private static class ActiveSpan {
+        private DefaultTraceRecoder owner;
+        private int spanId;
+
+        void enter(DefaultTraceRecoder recoder, int spanId) {
+            this.owner = recoder;
+            this.spanId = spanId;
+        }
+    }
 }
@@ -1,9 +1,17 @@
 package com.github.liuyueyi.hhui.components.trace.recoder;
 
 import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 /**
@@ -51,6 +59,84 @@ public interface ITraceRecoder extends Closeable {
      */
     CompletableFuture<Void> async(Runnable run, String name);
 
+    /**
+     * 批量异步执行，同时执行的任务数不超过 parallelism，避免循环调用 async 时打满线程池
+     *
+     * @param items       输入
+     * @param func        对单个输入的处理
+     * @param name        耗时标记
+     * @param parallelism 最大并行数
+     * @param <I>         输入类型
+     * @param <T>         返回类型
+     * @return 与输入顺序一致的返回结果
+     */
+    default <I, T> CompletableFuture<List<T>> asyncAll(Collection<I> items, Function<I, T> func, String name, int parallelism) {
+        return asyncAll(items, func, name, parallelism, 1);
+    }
+
+    /**
+     * 批量异步执行
+     * <p>
+     * - 最多提交 parallelism 个异步任务(耗时标记为 name(异步))，每个任务循环领取 chunkSize 个输入处理，直到所有输入被领取完毕
+     * - 每个输入的处理耗时，作为异步任务的子任务记录在 name 下，可以通过同名任务的聚合统计查看次数、均值、最大最小值
+     * - 任一输入处理失败时，其他任务不再领取新的输入，返回结果以第一个异常结束
+     *
+     * @param items       输入
+     * @param func        对单个输入的处理
+     * @param name        耗时标记
+     * @param parallelism 最大并行数
+     * @param chunkSize   每次领取的输入数量，输入多且单个处理很快时，可以适当调大，减少竞争
+     * @param <I>         输入类型
+     * @param <T>         返回类型
+     * @return 与输入顺序一致的返回结果
+     */
+    @SuppressWarnings("unchecked")
+    default <I, T> CompletableFuture<List<T>> asyncAll(Collection<I> items, Function<I, T> func, String name, int parallelism, int chunkSize) {
+        if (parallelism <= 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException("parallelism and chunkSize must be positive");
+        }
+        if (items == null || items.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        Object[] inputs = items.toArray();
+        Object[] outputs = new Object[inputs.length];
+        AtomicInteger cursor = new AtomicInteger();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        int chunks = (inputs.length + chunkSize - 1) / chunkSize;
+        int workers = Math.min(parallelism, chunks);
+        Runnable worker = () -> {
+            int from;
+            while (error.get() == null && (from = cursor.getAndAdd(chunkSize)) < inputs.length) {
+                int to = Math.min(inputs.length, from + chunkSize);
+                for (int i = from; i < to; i++) {
+                    I input = (I) inputs[i];
+                    outputs[i] = sync(() -> func.apply(input), name);
+                }
+            }
+        };
+
+        List<CompletableFuture<Void>> list = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            CompletableFuture<Void> future;
+            try {
+                future = async(worker, name);
+            } catch (Throwable e) {
+                // 同步执行的记录器中，异常会直接抛出
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            future.whenComplete((v, e) -> {
+                if (e != null) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            list.add(future);
+        }
+        return CompletableFuture.allOf(list.toArray(new CompletableFuture<?>[0]))
+                .thenApply(v -> (List<T>) Arrays.asList(outputs));
+    }
+
     /**
      * 等待全部任务执行完毕
      *
@@ -60,10 +146,20 @@ public interface ITraceRecoder extends Closeable {
         return this;
     }
 
+    /**
+     * 等待全部任务执行完毕，超时之后直接返回，未执行完毕的任务标记为超时
+     *
+     * @param timeout 最长等待时间，null 表示一直等待
+     * @return 返回结果
+     */
+    default ITraceRecoder allExecuted(Duration timeout) {
+        return allExecuted();
+    }
+
     /**
      * 日志打印
      *
-     * @return 各任务耗时情况
+     * @return 各任务耗时情况, ms
      */
     default Map<String, Long> prettyPrint() {
         return Collections.emptyMap();
@@ -0,0 +1,84 @@
+package com.github.liuyueyi.hhui.components.trace.recoder;
+
+import com.alibaba.ttl.threadpool.TtlExecutors;
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.context.TraceContext;
+import com.github.liuyueyi.hhui.components.trace.mdc.MdcUtil;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+/**
+ * 未被采样的请求使用的记录器
+ * <p>
+ * 与 SyncTraceRecoder 一样不记录任何耗时，区别在于异步任务依然会提交到线程池中执行，不改变业务代码的并发行为；
+ * 同一个线程池共用一个实例，未采样的请求不会产生额外的对象
+ *
+ * @author YiHui
+ * @date 2024/9/10
+ */
+public class NoopTraceRecoder implements ITraceRecoder {
+
+    private final ExecutorService executorService;
+
+    /**
+     * TTL 包装之前的原始线程池
+     */
+    private final ExecutorService originExecutorService;
+
+    public NoopTraceRecoder(ExecutorService executorService) {
+        this.executorService = executorService;
+        this.originExecutorService = TtlExecutors.unwrap(executorService);
+    }
+
+    @Override
+    public <T> T sync(Supplier<T> supplier, String name) {
+        return supplier.get();
+    }
+
+    @Override
+    public void sync(Runnable run, String name) {
+        run.run();
+    }
+
+    @Override
+    public <T> CompletableFuture<T> async(Supplier<T> supplier, String name) {
+        String traceId = MdcUtil.getGlobalTraceId();
+        TraceContext context = TraceWatch.getContext();
+        return CompletableFuture.supplyAsync(context.bind(this, () -> {
+            // 与 DefaultTraceRecoder 保持一致，将父线程的msgId设置到当前这个执行线程
+            MdcUtil.setGlobalTraceId(traceId);
+            return supplier.get();
+        }), executor(context));
+    }
+
+    @Override
+    public CompletableFuture<Void> async(Runnable run, String name) {
+        String traceId = MdcUtil.getGlobalTraceId();
+        TraceContext context = TraceWatch.getContext();
+        return CompletableFuture.runAsync(context.bind(this, () -> {
+            MdcUtil.setGlobalTraceId(traceId);
+            run.run();
+        }), executor(context));
+    }
+
+    private ExecutorService executor(TraceContext context) {
+        return context.isTransmittable() ? executorService : originExecutorService;
+    }
+
+    /**
+     * 不记录异步任务，因此也无需等待
+     *
+     * @return this
+     */
+    @Override
+    public ITraceRecoder allExecuted() {
+        return this;
+    }
+
+    @Override
+    public void close() {
+        TraceWatch.endTrace();
+    }
+}
@@ -0,0 +1,257 @@
+package com.github.liuyueyi.hhui.components.trace.recoder;
+
+import com.github.liuyueyi.hhui.components.trace.async.AsyncUtil;
+import com.github.liuyueyi.hhui.components.trace.async.TraceExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 结构化并发的记录器，所有的异步任务都属于trace这个作用域
+ * <p>
+ * - 任一异步任务执行失败时，取消其他还未结束的任务(未开始的不再执行，执行中的发起中断)
+ * - allExecuted()/close() 等待作用域内的任务结束，超时或结束之后，依然未执行完的任务会被取消(未开始的不再执行，执行中的发起中断)
+ * - close() 在有限的时间内(默认100ms，见 setCloseTimeout)等待被中断的任务真正退出；忽略中断的任务，超过这个时间之后仍可能在后台继续执行
+ * <p>
+ * 语义与 JDK 21 的 StructuredTaskScope.ShutdownOnFailure 一致，由于需要兼容 JDK 8，基于线程池的 Future#cancel 实现
+ *
+ * @author YiHui
+ * @date 2024/9/10
+ */
+public class ScopedTraceRecoder extends DefaultTraceRecoder {
+    private static final Logger log = LoggerFactory.getLogger(ScopedTraceRecoder.class);
+
+    /**
+     * close() 等待被取消的任务退出的默认时间
+     */
+    public static final Duration DEFAULT_CLOSE_TIMEOUT = Duration.ofMillis(100);
+
+    /**
+     * 作用域内还未结束的任务，结果完成时移除
+     */
+    private final Set<Subtask<?>> subtasks = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 正在线程池中执行的任务数，结果被取消之后任务本身可能还未退出
+     */
+    private final AtomicInteger running = new AtomicInteger();
+
+    private volatile Duration closeTimeout = DEFAULT_CLOSE_TIMEOUT;
+
+    /**
+     * 第一个执行失败的任务异常
+     */
+    private volatile Throwable failure;
+
+    /**
+     * 作用域是否已经关闭，关闭之后不再执行新的任务
+     */
+    private volatile boolean shutdown;
+
+    public ScopedTraceRecoder() {
+        this(AsyncUtil.traceExecutor, "TraceDog", true);
+    }
+
+    public ScopedTraceRecoder(TraceExecutor executor, String task, boolean logEnable) {
+        super(executor, task, logEnable);
+    }
+
+    @Override
+    protected <T> CompletableFuture<T> fork(Supplier<T> supplier) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (shutdown) {
+            result.completeExceptionally(new CancellationException("trace scope is shutdown"));
+            return result;
+        }
+
+        Subtask<T> subtask = new Subtask<>(result);
+        subtasks.add(subtask);
+        result.whenComplete((r, e) -> subtasks.remove(subtask));
+        try {
+            subtask.future = getExecutorService().submit(() -> {
+                running.incrementAndGet();
+                try {
+                    if (!result.isDone()) {
+                        result.complete(supplier.get());
+                    }
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                    fail(e);
+                } finally {
+                    if (running.decrementAndGet() == 0) {
+                        synchronized (running) {
+                            running.notifyAll();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+            fail(e);
+        }
+        if (shutdown && !subtask.cancel() && result.isCancelled() && subtask.future != null) {
+            // 提交的同时作用域被关闭，此时任务的句柄可能还未赋值，补一次取消
+            subtask.future.cancel(true);
+        }
+        return result;
+    }
+
+    @Override
+    protected CompletableFuture<Void> fork(Runnable run) {
+        return fork(() -> {
+            run.run();
+            return null;
+        });
+    }
+
+    /**
+     * 等待作用域内的任务执行完毕，存在失败的任务时，抛出第一个失败的异常(而不是被取消的兄弟任务的异常)
+     *
+     * @param timeout 最长等待时间，null 表示一直等待
+     * @return
+     */
+    @Override
+    public DefaultTraceRecoder allExecuted(Duration timeout) {
+        try {
+            super.allExecuted(timeout);
+        } catch (CompletionException e) {
+            Throwable cause = failure;
+            if (cause == null || cause == e.getCause()) {
+                throw e;
+            }
+            throw new CompletionException(cause);
+        }
+        if (getTimeoutCount() > 0) {
+            // 超时未结束的任务，不允许脱离trace继续执行
+            shutdown();
+        }
+        return this;
+    }
+
+    @Override
+    public void close() {
+        try {
+            super.close();
+        } finally {
+            shutdown();
+            awaitTermination();
+        }
+    }
+
+    /**
+     * 设置 close() 等待被取消的任务退出的最长时间
+     *
+     * @param timeout 最长等待时间，null 或 0 表示不等待
+     * @return
+     */
+    public ScopedTraceRecoder setCloseTimeout(Duration timeout) {
+        this.closeTimeout = timeout == null ? Duration.ZERO : timeout;
+        return this;
+    }
+
+    /**
+     * 等待被取消的任务退出，任务开始执行时先计数再检查是否已被取消，因此计数归零之后不会再有任务执行业务逻辑
+     */
+    private void awaitTermination() {
+        long deadline = System.nanoTime() + closeTimeout.toNanos();
+        synchronized (running) {
+            long left;
+            while (running.get() > 0 && (left = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(running, left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        int alive = running.get();
+        if (alive > 0) {
+            log.warn("trace scope closed, but {} cancelled tasks are still running", alive);
+        }
+    }
+
+    /**
+     * @return 正在线程池中执行的任务数
+     */
+    public int getRunningCount() {
+        return running.get();
+    }
+
+    /**
+     * @return 第一个执行失败的任务异常，没有时返回null
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return 作用域是否已经关闭
+     */
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    private void fail(Throwable e) {
+        if (failure == null) {
+            synchronized (this) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        shutdown();
+    }
+
+    /**
+     * 关闭作用域，取消所有未结束的任务
+     */
+    private void shutdown() {
+        shutdown = true;
+        int cancelled = 0;
+        for (Subtask<?> subtask : subtasks) {
+            if (subtask.cancel()) {
+                cancelled++;
+            }
+        }
+        if (cancelled > 0 && log.isDebugEnabled()) {
+            log.debug("trace scope shutdown, cancel {} tasks", cancelled);
+        }
+    }
+
+    private static class Subtask<T> {
+        private final CompletableFuture<T> result;
+        private volatile Future<?> future;
+
+        Subtask(CompletableFuture<T> result) {
+            this.result = result;
+        }
+
+        /**
+         * @return true 表示任务被取消
+         */
+        boolean cancel() {
+            // 先标记结果，避免被中断的任务正常返回之后覆盖取消状态
+            if (!result.completeExceptionally(new CancellationException("cancelled by trace scope"))) {
+                return false;
+            }
+            Future<?> f = future;
+            if (f != null) {
+                // 还未执行的任务不再执行，执行中的任务发起中断
+                f.cancel(true);
+            }
+            return true;
+        }
+    }
+}
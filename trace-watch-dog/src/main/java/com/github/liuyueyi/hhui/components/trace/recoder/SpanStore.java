@@ -0,0 +1,318 @@
+package com.github.liuyueyi.hhui.components.trace.recoder;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 任务执行记录的存储，以任务id为下标的分段数组
+ * <p>
+ * - 新增记录只需要一次 getAndIncrement，不会加锁，也不会像 CopyOnWriteArrayList 一样每次复制整个数组
+ * - 容量不足时按段扩容，已有的段不会被复制，写入中的任务不受影响
+ * - 同一个下标只会被执行对应任务的线程写入，读取统一发生在所有任务执行完毕之后
+ * - 任务状态通过CAS流转，等待超时之后被标记为 TIMEOUT 的任务，晚到的开始/结束都会被忽略
+ * - 新增记录写完所有字段之后才将状态置为 INIT 发布出去，其他线程看到 EMPTY 的下标时直接跳过
+ *
+ * @author YiHui
+ * @date 2024/9/5
+ */
+final class SpanStore {
+    private static final int CHUNK_BITS = 4;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * 回收复用时，最多保留的段数，超出的部分直接丢弃，避免偶发的大trace长期占用内存
+     */
+    private static final int RETAIN_CHUNKS = 16;
+
+    /**
+     * 下标已经分配，任务名等字段还在写入中
+     */
+    static final int STATE_EMPTY = 0;
+    static final int STATE_INIT = 1;
+    /**
+     * 正在写入开始时间
+     */
+    static final int STATE_STARTING = 2;
+    static final int STATE_RUNNING = 3;
+    /**
+     * 正在写入结束时间
+     */
+    static final int STATE_ENDING = 4;
+    static final int STATE_FINISHED = 5;
+    /**
+     * 超时未结束，不再接受写入
+     */
+    static final int STATE_TIMEOUT = 6;
+
+    private final AtomicInteger size;
+
+    private final AtomicReference<Chunk[]> chunks;
+
+    SpanStore() {
+        this.size = new AtomicInteger();
+        this.chunks = new AtomicReference<>(initChunks());
+    }
+
+    private static Chunk[] initChunks() {
+        Chunk[] init = new Chunk[4];
+        init[0] = new Chunk();
+        return init;
+    }
+
+    /**
+     * 清空所有记录，保留已分配的数组以便复用
+     * 要求调用时，不再有任务写入
+     */
+    void reset() {
+        int used = size.get();
+        Chunk[] dir = chunks.get();
+        if (dir.length > RETAIN_CHUNKS) {
+            chunks.set(initChunks());
+        } else {
+            int usedChunks = Math.min(dir.length, (used + CHUNK_MASK) >>> CHUNK_BITS);
+            for (int c = 0; c < usedChunks; c++) {
+                Chunk chunk = dir[c];
+                if (chunk != null) {
+                    chunk.clear();
+                }
+            }
+        }
+        size.set(0);
+    }
+
+    /**
+     * 新增一条记录
+     *
+     * @param name     任务名
+     * @param parentId 父任务
+     * @param async    是否异步
+     * @param submit   提交时间，同步任务传0
+     * @return 任务id
+     */
+    int append(String name, int parentId, boolean async, long submit) {
+        int id = size.getAndIncrement();
+        Chunk chunk = chunk(id);
+        int idx = id & CHUNK_MASK;
+        chunk.name[idx] = name;
+        chunk.parent[idx] = parentId;
+        chunk.async[idx] = async;
+        chunk.submit[idx] = submit;
+        chunk.callerRuns[idx] = false;
+        // 字段写完之后再发布，读取到 INIT 及之后状态的线程一定能看到完整的记录
+        chunk.state.set(idx, STATE_INIT);
+        return id;
+    }
+
+    /**
+     * 记录开始时间与执行线程，需要在执行任务的线程中调用
+     *
+     * @param id   任务id
+     * @param time 开始时间
+     * @return false 表示任务已经超时，不再记录
+     */
+    boolean start(int id, long time) {
+        Chunk chunk = chunk(id);
+        int idx = id & CHUNK_MASK;
+        if (!chunk.state.compareAndSet(idx, STATE_INIT, STATE_STARTING)) {
+            return false;
+        }
+        chunk.start[idx] = time;
+        chunk.thread[idx] = Thread.currentThread();
+        chunk.state.set(idx, STATE_RUNNING);
+        return true;
+    }
+
+    /**
+     * 记录结束时间，每个任务只记录一次
+     *
+     * @param id   任务id
+     * @param time 结束时间
+     * @return false 表示任务未开始、已经结束或已经超时
+     */
+    boolean end(int id, long time) {
+        Chunk chunk = chunk(id);
+        int idx = id & CHUNK_MASK;
+        if (!chunk.state.compareAndSet(idx, STATE_RUNNING, STATE_ENDING)) {
+            return false;
+        }
+        // 单调时钟理论上不会回退，这里兜底避免自定义时钟出现负数耗时
+        chunk.end[idx] = Math.max(chunk.start[idx], time);
+        chunk.state.set(idx, STATE_FINISHED);
+        return true;
+    }
+
+    /**
+     * 将未结束的任务标记为超时，之后任务的开始/结束都不会再被记录
+     *
+     * @param id   任务id
+     * @param time 超时的时间
+     * @return true 表示任务被标记为超时；false 表示任务已经正常结束，或者记录还在写入中(任务尚未提交)
+     */
+    boolean timeout(int id, long time) {
+        Chunk chunk = chunk(id);
+        int idx = id & CHUNK_MASK;
+        while (true) {
+            int state = chunk.state.get(idx);
+            if (state == STATE_EMPTY) {
+                // 其他线程正在新增这条记录，任务还没有提交，不标记超时，快照中也不会出现
+                return false;
+            }
+            if (state == STATE_FINISHED || state == STATE_TIMEOUT) {
+                return state == STATE_TIMEOUT;
+            }
+            if (state == STATE_STARTING || state == STATE_ENDING) {
+                // 另一个线程正在写入时间，只需要等待几条指令
+                Thread.yield();
+                continue;
+            }
+            if (chunk.state.compareAndSet(idx, state, STATE_TIMEOUT)) {
+                if (state == STATE_INIT) {
+                    // 还没有开始执行
+                    chunk.start[idx] = time;
+                }
+                chunk.end[idx] = Math.max(chunk.start[idx], time);
+                return true;
+            }
+        }
+    }
+
+    void future(int id, CompletableFuture<?> future) {
+        chunk(id).future.set(id & CHUNK_MASK, future);
+    }
+
+    CompletableFuture<?> future(int id) {
+        return chunk(id).future.get(id & CHUNK_MASK);
+    }
+
+    /**
+     * 记录已经分配了下标，但等待它还需要的 future 尚未保存：记录本身还在写入中，或者提交异步任务的线程还没有执行到保存 future
+     *
+     * @param id 任务id
+     * @return true 表示需要稍后重新读取
+     */
+    boolean futurePending(int id) {
+        Chunk chunk = chunk(id);
+        int idx = id & CHUNK_MASK;
+        int state = chunk.state.get(idx);
+        return state == STATE_EMPTY || chunk.async[idx] && chunk.future.get(idx) == null;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    String name(int id) {
+        return chunk(id).name[id & CHUNK_MASK];
+    }
+
+    int parent(int id) {
+        return chunk(id).parent[id & CHUNK_MASK];
+    }
+
+    boolean async(int id) {
+        return chunk(id).async[id & CHUNK_MASK];
+    }
+
+    int state(int id) {
+        return chunk(id).state.get(id & CHUNK_MASK);
+    }
+
+    long start(int id) {
+        return chunk(id).start[id & CHUNK_MASK];
+    }
+
+    long end(int id) {
+        return chunk(id).end[id & CHUNK_MASK];
+    }
+
+    /**
+     * 标记异步任务退化为在提交线程中执行，需要在任务结束之前调用
+     *
+     * @param id 任务id
+     */
+    void callerRuns(int id) {
+        chunk(id).callerRuns[id & CHUNK_MASK] = true;
+    }
+
+    boolean isCallerRuns(int id) {
+        return chunk(id).callerRuns[id & CHUNK_MASK];
+    }
+
+    /**
+     * @return 执行任务的线程，未开始执行时为null
+     */
+    Thread thread(int id) {
+        return chunk(id).thread[id & CHUNK_MASK];
+    }
+
+    long submit(int id) {
+        return chunk(id).submit[id & CHUNK_MASK];
+    }
+
+    private Chunk chunk(int id) {
+        int c = id >>> CHUNK_BITS;
+        Chunk[] dir = chunks.get();
+        if (c < dir.length) {
+            Chunk chunk = dir[c];
+            if (chunk != null) {
+                return chunk;
+            }
+        }
+        return grow(c);
+    }
+
+    /**
+     * 扩容，只复制段的引用；已发布的目录不会被修改，竞争失败时重试即可
+     *
+     * @param c 需要的段
+     * @return 段
+     */
+    private Chunk grow(int c) {
+        while (true) {
+            Chunk[] dir = chunks.get();
+            if (c < dir.length && dir[c] != null) {
+                return dir[c];
+            }
+            Chunk[] next = new Chunk[c < dir.length ? dir.length : Math.max(c + 1, dir.length << 1)];
+            System.arraycopy(dir, 0, next, 0, dir.length);
+            for (int i = 0; i <= c; i++) {
+                if (next[i] == null) {
+                    next[i] = new Chunk();
+                }
+            }
+            if (chunks.compareAndSet(dir, next)) {
+                return next[c];
+            }
+        }
+    }
+
+    private static final class Chunk {
+        private final long[] submit = new long[CHUNK_SIZE];
+        private final long[] start = new long[CHUNK_SIZE];
+        private final long[] end = new long[CHUNK_SIZE];
+        private final int[] parent = new int[CHUNK_SIZE];
+        private final AtomicIntegerArray state = new AtomicIntegerArray(CHUNK_SIZE);
+        private final boolean[] async = new boolean[CHUNK_SIZE];
+        private final boolean[] callerRuns = new boolean[CHUNK_SIZE];
+        private final String[] name = new String[CHUNK_SIZE];
+        private final Thread[] thread = new Thread[CHUNK_SIZE];
+        /**
+         * 由提交任务的线程写入，等待的线程读取，需要保证可见性
+         */
+        private final AtomicReferenceArray<CompletableFuture<?>> future = new AtomicReferenceArray<>(CHUNK_SIZE);
+
+        void clear() {
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                state.lazySet(i, STATE_EMPTY);
+                future.lazySet(i, null);
+            }
+            Arrays.fill(name, null);
+            Arrays.fill(thread, null);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.liuyueyi.hhui.components.trace.sample;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 默认的采样策略
+ * <p>
+ * - 固定比例采样
+ * - 支持为指定的trace单独设置采样比例
+ * - 支持限制每秒最多采样的trace数，超出的部分直接丢弃（令牌桶，允许一秒的突发量）
+ *
+ * @author YiHui
+ * @date 2024/9/10
+ */
+public class DefaultTraceSampler implements TraceSampler {
+    /**
+     * 默认的采样比例 [0, 1]
+     */
+    private volatile double rate;
+
+    /**
+     * 指定trace的采样比例
+     */
+    private final Map<String, Double> traceRates;
+
+    /**
+     * 每个令牌的生成间隔，纳秒；小于等于0 表示不限制
+     */
+    private volatile long tokenInterval;
+
+    /**
+     * 令牌桶容量对应的时间，即允许的突发量
+     */
+    private volatile long burstNanos;
+
+    /**
+     * 理论到达时间（GCRA），与当前时间的差值表示已经透支的令牌，通过CAS更新，不需要加锁
+     */
+    private final AtomicLong nextFreeTime;
+
+    public DefaultTraceSampler() {
+        this(1D);
+    }
+
+    public DefaultTraceSampler(double rate) {
+        this.rate = checkRate(rate);
+        this.traceRates = new ConcurrentHashMap<>();
+        this.tokenInterval = 0;
+        this.nextFreeTime = new AtomicLong(System.nanoTime());
+    }
+
+    private static double checkRate(double rate) {
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException("sample rate should between 0 and 1: " + rate);
+        }
+        return rate;
+    }
+
+    /**
+     * 设置默认的采样比例
+     *
+     * @param rate [0, 1]
+     * @return this
+     */
+    public DefaultTraceSampler setRate(double rate) {
+        this.rate = checkRate(rate);
+        return this;
+    }
+
+    /**
+     * 为指定的trace设置采样比例
+     *
+     * @param traceName trace名
+     * @param rate      [0, 1]
+     * @return this
+     */
+    public DefaultTraceSampler setTraceRate(String traceName, double rate) {
+        traceRates.put(traceName, checkRate(rate));
+        return this;
+    }
+
+    /**
+     * 限制每秒最多采样的trace数
+     *
+     * @param maxTracesPerSecond 小于等于0 表示不限制
+     * @return this
+     */
+    public DefaultTraceSampler setMaxTracesPerSecond(int maxTracesPerSecond) {
+        if (maxTracesPerSecond <= 0) {
+            this.tokenInterval = 0;
+        } else {
+            // sample 先读 tokenInterval 再读 burstNanos，先写 burstNanos，保证读到新的间隔时突发量也已经可见
+            this.burstNanos = TimeUnit.SECONDS.toNanos(1);
+            this.tokenInterval = Math.max(1, TimeUnit.SECONDS.toNanos(1) / maxTracesPerSecond);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean sample(String traceName) {
+        Double traceRate = traceRates.isEmpty() ? null : traceRates.get(traceName);
+        double r = traceRate == null ? rate : traceRate;
+        if (r <= 0) {
+            return false;
+        }
+        if (r < 1 && ThreadLocalRandom.current().nextDouble() >= r) {
+            return false;
+        }
+        return acquire();
+    }
+
+    /**
+     * 获取一个令牌
+     *
+     * @return false 表示超出了每秒的上限
+     */
+    private boolean acquire() {
+        long interval = tokenInterval;
+        if (interval <= 0) {
+            return true;
+        }
+
+        long now = System.nanoTime();
+        while (true) {
+            long tat = nextFreeTime.get();
+            if (tat - now > burstNanos - interval) {
+                // 突发量已经用完
+                return false;
+            }
+            if (nextFreeTime.compareAndSet(tat, Math.max(tat, now) + interval)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.liuyueyi.hhui.components.trace.sample;
+
+/**
+ * trace采样策略，在 startTrace 时判断本次请求是否需要记录
+ *
+ * @author YiHui
+ * @date 2024/9/10
+ */
+@FunctionalInterface
+public interface TraceSampler {
+
+    /**
+     * 全部采样
+     */
+    TraceSampler ALWAYS = traceName -> true;
+
+    /**
+     * 是否采样
+     *
+     * @param traceName trace名
+     * @return true 表示记录本次请求
+     */
+    boolean sample(String traceName);
+
+}
@@ -0,0 +1,157 @@
+package com.github.liuyueyi.hhui.components.trace.span;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 关键路径分析
+ * <p>
+ * 异步任务并行执行时，trace的总耗时取决于最长的依赖链，而不是各个任务耗时之和。从trace结束的时刻往前回溯:
+ * - 每一步选择在当前时刻之前最晚结束的子任务，它就是当前时刻在等待的任务，进入该任务内部继续回溯，然后从它的开始(异步任务为提交)时刻继续
+ * - 同步任务在提交线程中串行执行，自然首尾相接；allExecuted() 等待的是最后结束的异步任务
+ * - 结束时间晚于父任务的异步任务(父任务没有等待它)，归属到等待它的祖先任务下，最终由根节点的 allExecuted() 等待
+ * <p>
+ * 松弛时间(slack)表示任务在不影响总耗时的前提下，还可以变慢多少:
+ * - 关键路径上的任务为0
+ * - 异步任务由 allExecuted() 等待，为 trace结束 - 任务结束
+ * - 同步任务阻塞所在线程的后续执行，与父任务相同；提交线程上的同步任务，为提交线程在 allExecuted() 中空等的时间
+ *
+ * @author YiHui
+ * @date 2024/9/14
+ */
+public class CriticalPath {
+    /**
+     * 关键路径上的任务，不包含根节点，按照开始时间排序
+     */
+    private final List<TraceSpan> path;
+
+    private final Set<Integer> critical;
+
+    /**
+     * 任务id -> 松弛时间
+     */
+    private final Map<Integer, Long> slack;
+
+    private CriticalPath(List<TraceSpan> path, Set<Integer> critical, Map<Integer, Long> slack) {
+        this.path = path;
+        this.critical = critical;
+        this.slack = slack;
+    }
+
+    public static CriticalPath of(TraceSnapshot snapshot) {
+        TraceSpan root = snapshot.getRoot();
+        Map<Integer, TraceSpan> index = new HashMap<>(snapshot.getSpans().size() << 1);
+        Map<Integer, List<TraceSpan>> deps = new HashMap<>();
+        for (TraceSpan span : snapshot.getSpans()) {
+            index.put(span.getId(), span);
+            if (span == root) {
+                continue;
+            }
+            // 父任务没有等待它结束时，归属到等待它的祖先任务
+            TraceSpan waiter = index.get(span.getParentId());
+            while (waiter != null && waiter != root && span.getEndOffset() > waiter.getEndOffset()) {
+                waiter = index.get(waiter.getParentId());
+            }
+            deps.computeIfAbsent(waiter == null ? root.getId() : waiter.getId(), k -> new ArrayList<>()).add(span);
+        }
+
+        Set<Integer> critical = new HashSet<>();
+        walk(root, root.getEndOffset(), deps, critical);
+
+        List<TraceSpan> path = new ArrayList<>(critical.size());
+        Map<Integer, Long> slack = new HashMap<>(index.size() << 1);
+        long end = root.getEndOffset();
+        long rootThreadSlack = Math.max(0, end - joinStart(snapshot));
+        for (TraceSpan span : snapshot.getSpans()) {
+            long s;
+            if (span == root) {
+                s = 0;
+            } else if (critical.contains(span.getId())) {
+                path.add(span);
+                s = 0;
+            } else if (span.isAsync()) {
+                s = Math.max(0, end - span.getEndOffset());
+            } else if (span.getParentId() == root.getId() || !slack.containsKey(span.getParentId())) {
+                s = rootThreadSlack;
+            } else {
+                s = slack.get(span.getParentId());
+            }
+            slack.put(span.getId(), s);
+        }
+        path.sort((a, b) -> a.getStartOffset() != b.getStartOffset() ? Long.compare(a.getStartOffset(), b.getStartOffset())
+                : Integer.compare(a.getId(), b.getId()));
+        return new CriticalPath(Collections.unmodifiableList(path), critical, slack);
+    }
+
+    /**
+     * 从 time 时刻开始往前回溯，记录 span 内部的关键路径
+     */
+    private static void walk(TraceSpan span, long time, Map<Integer, List<TraceSpan>> deps, Set<Integer> critical) {
+        critical.add(span.getId());
+        List<TraceSpan> children = deps.get(span.getId());
+        if (children == null) {
+            return;
+        }
+        while (true) {
+            TraceSpan next = null;
+            long nextEnd = 0;
+            for (TraceSpan child : children) {
+                if (child.getStartOffset() >= time || critical.contains(child.getId())) {
+                    continue;
+                }
+                // 在 time 时刻还未结束的任务，只有 time 之前的部分参与比较
+                long e = Math.min(child.getEndOffset(), time);
+                if (next == null || e > nextEnd || (e == nextEnd && child.getStartOffset() < next.getStartOffset())) {
+                    next = child;
+                    nextEnd = e;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            walk(next, nextEnd, deps, critical);
+            // 异步任务依赖的是提交的时刻，排队期间提交线程上执行的任务不在关键路径上
+            time = next.getStartOffset() - next.getQueueCost();
+        }
+    }
+
+    /**
+     * 提交线程开始等待的时刻，没有记录时，取根节点下同步任务的最晚结束时间
+     */
+    private static long joinStart(TraceSnapshot snapshot) {
+        if (snapshot.getJoinStartOffset() >= 0) {
+            return snapshot.getJoinStartOffset();
+        }
+        long join = 0;
+        for (TraceSpan child : snapshot.getRoot().getChildren()) {
+            if (!child.isAsync()) {
+                join = Math.max(join, child.getEndOffset());
+            }
+        }
+        return join;
+    }
+
+    /**
+     * @return 关键路径上的任务，不包含trace本身，按照开始时间排序
+     */
+    public List<TraceSpan> getPath() {
+        return path;
+    }
+
+    public boolean isCritical(TraceSpan span) {
+        return critical.contains(span.getId());
+    }
+
+    /**
+     * @param span 任务
+     * @return 松弛时间，纳秒
+     */
+    public long getSlack(TraceSpan span) {
+        return slack.getOrDefault(span.getId(), 0L);
+    }
+}
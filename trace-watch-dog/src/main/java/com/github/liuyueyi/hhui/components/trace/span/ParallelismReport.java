@@ -0,0 +1,228 @@
+package com.github.liuyueyi.hhui.components.trace.span;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 单个trace的并行效率
+ * <p>
+ * 异步任务与提交线程并行执行，各个任务耗时占总耗时的比例没有意义，这里换一个角度衡量异步是否带来了实际的收益:
+ * - 提交线程在 allExecuted() 之前一直在工作，之后阻塞等待异步任务
+ * - 每个异步任务(及其中嵌套的同步任务)在一个工作线程中串行执行，退化为在提交线程中执行的异步任务不重复计算
+ * - 异步任务中再提交的异步任务执行期间，父任务的工作线程视为阻塞等待，这段时间不计入父任务的工作时间
+ * - 线程总工作时间 / 总耗时 = 平均并发度，接近1说明异步只是多了线程切换，并没有并行
+ *
+ * @author YiHui
+ * @date 2024/9/14
+ */
+public class ParallelismReport {
+    /**
+     * 总耗时
+     */
+    private final long wallTime;
+
+    /**
+     * 所有线程的工作时间之和
+     */
+    private final long taskTime;
+
+    /**
+     * 提交线程阻塞在 allExecuted() 中的时间
+     */
+    private final long blockedTime;
+
+    /**
+     * 提交线程中同步任务的耗时
+     */
+    private final long syncTime;
+
+    /**
+     * 异步任务的工作时间之和，不含排队，也不含等待嵌套异步任务的时间
+     */
+    private final long asyncTime;
+
+    /**
+     * 至少有一个异步任务在执行的时间
+     */
+    private final long asyncWallTime;
+
+    /**
+     * 异步任务与提交线程同时工作的时间，即被提交线程的工作掩盖掉的异步耗时
+     */
+    private final long overlapTime;
+
+    /**
+     * 异步任务在线程池中的排队耗时之和
+     */
+    private final long queueTime;
+
+    private ParallelismReport(long wallTime, long taskTime, long blockedTime, long syncTime, long asyncTime,
+                              long asyncWallTime, long overlapTime, long queueTime) {
+        this.wallTime = wallTime;
+        this.taskTime = taskTime;
+        this.blockedTime = blockedTime;
+        this.syncTime = syncTime;
+        this.asyncTime = asyncTime;
+        this.asyncWallTime = asyncWallTime;
+        this.overlapTime = overlapTime;
+        this.queueTime = queueTime;
+    }
+
+    public static ParallelismReport of(TraceSnapshot snapshot) {
+        TraceSpan root = snapshot.getRoot();
+        long wall = root.getCost();
+        long syncTime = 0, syncEnd = root.getStartOffset();
+        for (TraceSpan child : root.getChildren()) {
+            if (!child.isAsync()) {
+                syncTime += child.getCost();
+                syncEnd = Math.max(syncEnd, child.getEndOffset());
+            }
+        }
+        // 提交线程开始等待之前都在工作；没有记录时，以同步任务的结束为准
+        long joinStart = snapshot.getJoinStartOffset() >= 0 ? snapshot.getJoinStartOffset() : syncEnd;
+        joinStart = Math.min(Math.max(joinStart, root.getStartOffset()), root.getEndOffset());
+        long requestTime = joinStart - root.getStartOffset();
+
+        AsyncCollector collector = new AsyncCollector();
+        // 提交线程等待异步任务的时间已经通过 joinStart 扣除，这里不再需要根节点下的嵌套区间
+        collector.visit(root, new ArrayList<>());
+        long asyncTime = collector.asyncTime, queueTime = collector.queueTime;
+        List<long[]> intervals = collector.intervals;
+        intervals.sort((a, b) -> Long.compare(a[0], b[0]));
+        long asyncWall = 0, overlap = 0;
+        long from = -1, to = -1;
+        for (long[] interval : intervals) {
+            if (interval[0] > to) {
+                asyncWall += to - from;
+                overlap += overlap(from, to, root.getStartOffset(), joinStart);
+                from = interval[0];
+                to = interval[1];
+            } else if (interval[1] > to) {
+                to = interval[1];
+            }
+        }
+        asyncWall += to - from;
+        overlap += overlap(from, to, root.getStartOffset(), joinStart);
+
+        return new ParallelismReport(wall, requestTime + asyncTime, root.getEndOffset() - joinStart, syncTime,
+                asyncTime, asyncWall, overlap, queueTime);
+    }
+
+    private static long overlap(long from, long to, long start, long end) {
+        return Math.max(0, Math.min(to, end) - Math.max(from, start));
+    }
+
+    /**
+     * 按照执行线程遍历异步任务
+     */
+    private static class AsyncCollector {
+        private long asyncTime;
+        private long queueTime;
+        /**
+         * 所有在工作线程中执行的异步任务区间
+         */
+        private final List<long[]> intervals = new ArrayList<>();
+
+        /**
+         * @param span   遍历的任务
+         * @param nested 收集在同一个线程中直接提交的异步任务区间，执行期间这个线程在等待它们
+         */
+        private void visit(TraceSpan span, List<long[]> nested) {
+            for (TraceSpan child : span.getChildren()) {
+                if (!child.isAsync()) {
+                    visit(child, nested);
+                    continue;
+                }
+                queueTime += child.getQueueCost();
+                if (child.isCallerRuns()) {
+                    // 在提交线程中执行，已经包含在提交线程的工作时间内
+                    visit(child, nested);
+                    continue;
+                }
+                long[] interval = new long[]{child.getStartOffset(), child.getEndOffset()};
+                intervals.add(interval);
+                nested.add(interval);
+                List<long[]> own = new ArrayList<>();
+                visit(child, own);
+                // 无法区分父任务是否真的在等待，保守地认为嵌套异步任务执行期间父任务的线程都在等待
+                asyncTime += child.getCost() - covered(own, interval[0], interval[1]);
+            }
+        }
+
+        /**
+         * @return 区间的并集落在 [from, to] 中的长度
+         */
+        private static long covered(List<long[]> list, long from, long to) {
+            if (list.isEmpty()) {
+                return 0;
+            }
+            list.sort((a, b) -> Long.compare(a[0], b[0]));
+            long total = 0, start = from, end = from;
+            for (long[] interval : list) {
+                long s = Math.max(interval[0], from), e = Math.min(interval[1], to);
+                if (s > end) {
+                    total += end - start;
+                    start = s;
+                    end = e;
+                } else if (e > end) {
+                    end = e;
+                }
+            }
+            return total + end - start;
+        }
+    }
+
+    public long getWallTime() {
+        return wallTime;
+    }
+
+    public long getTaskTime() {
+        return taskTime;
+    }
+
+    /**
+     * @return 平均并发度，即平均有多少个线程在为这个trace工作
+     */
+    public double getConcurrency() {
+        return wallTime <= 0 ? 1 : taskTime / (double) wallTime;
+    }
+
+    public long getBlockedTime() {
+        return blockedTime;
+    }
+
+    public long getSyncTime() {
+        return syncTime;
+    }
+
+    public long getAsyncTime() {
+        return asyncTime;
+    }
+
+    public long getAsyncWallTime() {
+        return asyncWallTime;
+    }
+
+    public long getOverlapTime() {
+        return overlapTime;
+    }
+
+    public long getQueueTime() {
+        return queueTime;
+    }
+
+    @Override
+    public String toString() {
+        return "ParallelismReport{" +
+                "wallTime=" + wallTime +
+                ", taskTime=" + taskTime +
+                ", concurrency=" + getConcurrency() +
+                ", blockedTime=" + blockedTime +
+                ", syncTime=" + syncTime +
+                ", asyncTime=" + asyncTime +
+                ", asyncWallTime=" + asyncWallTime +
+                ", overlapTime=" + overlapTime +
+                ", queueTime=" + queueTime +
+                '}';
+    }
+}
@@ -0,0 +1,169 @@
+package com.github.liuyueyi.hhui.components.trace.span;
+
+/**
+ * 同一个trace内，同名任务的聚合统计，如循环中多次调用、并发提交的同名异步任务
+ * <p>
+ * 所有的时间单位都是纳秒
+ *
+ * @author YiHui
+ * @date 2024/9/6
+ */
+public class TaskStat {
+    /**
+     * 分布统计的桶数，第 i 个桶记录 [2^i, 2^(i+1)) us 的任务，最后一个桶记录所有更大的耗时
+     */
+    public static final int BUCKETS = 24;
+
+    private final String name;
+    private int count;
+    private long sum;
+    private long min;
+    private long max;
+    private int timeoutCount;
+    private long queueSum;
+    private long queueMax;
+    private int callerRunsCount;
+    private final int[] histogram;
+
+    public TaskStat(String name) {
+        this.name = name;
+        this.min = Long.MAX_VALUE;
+        this.histogram = new int[BUCKETS];
+    }
+
+    /**
+     * 记录一次执行耗时
+     *
+     * @param cost 耗时，纳秒
+     */
+    public void record(long cost) {
+        count++;
+        sum += cost;
+        if (cost < min) {
+            min = cost;
+        }
+        if (cost > max) {
+            max = cost;
+        }
+        histogram[bucket(cost)]++;
+    }
+
+    /**
+     * 记录一次执行耗时
+     *
+     * @param cost    耗时，纳秒
+     * @param timeout 是否超时，超时的耗时为等待结束时已执行的时间
+     */
+    public void record(long cost, boolean timeout) {
+        record(cost);
+        if (timeout) {
+            timeoutCount++;
+        }
+    }
+
+    /**
+     * 记录一次执行耗时
+     *
+     * @param cost      执行耗时，纳秒
+     * @param timeout   是否超时
+     * @param queueCost 异步任务在线程池中的排队耗时，纳秒
+     */
+    public void record(long cost, boolean timeout, long queueCost) {
+        record(cost, timeout);
+        queueSum += queueCost;
+        if (queueCost > queueMax) {
+            queueMax = queueCost;
+        }
+    }
+
+    /**
+     * 耗时所在的桶
+     *
+     * @param cost 纳秒
+     * @return 下标
+     */
+    public static int bucket(long cost) {
+        long micros = cost / 1000;
+        if (micros <= 1) {
+            return 0;
+        }
+        return Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return 超时未执行完毕的次数
+     */
+    public int getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /**
+     * @return 累计排队耗时，仅异步任务有值
+     */
+    public long getQueueSum() {
+        return queueSum;
+    }
+
+    public long getQueueMax() {
+        return queueMax;
+    }
+
+    /**
+     * @return 退化为在提交线程中执行的次数
+     */
+    public int getCallerRunsCount() {
+        return callerRunsCount;
+    }
+
+    /**
+     * 记录一次异步任务退化为在提交线程中执行
+     */
+    public void recordCallerRuns() {
+        callerRunsCount++;
+    }
+
+    public long getAvg() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * @return 耗时分布，下标含义见 {@link #BUCKETS}
+     */
+    public int[] getHistogram() {
+        return histogram.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "TaskStat{" +
+                "name='" + name + '\'' +
+                ", count=" + count +
+                ", sum=" + sum +
+                ", min=" + getMin() +
+                ", max=" + max +
+                ", timeoutCount=" + timeoutCount +
+                ", queueSum=" + queueSum +
+                ", callerRunsCount=" + callerRunsCount +
+                '}';
+    }
+}
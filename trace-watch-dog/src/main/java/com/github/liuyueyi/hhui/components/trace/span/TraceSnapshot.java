@@ -0,0 +1,239 @@
+package com.github.liuyueyi.hhui.components.trace.span;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 一次trace执行结束之后的快照，包含完整的执行树
+ * <p>
+ * 所有的时间单位都是纳秒
+ *
+ * @author YiHui
+ * @date 2024/9/3
+ */
+public class TraceSnapshot {
+    private final String traceName;
+
+    /**
+     * 全链路id(MdcUtil)，可能为null
+     */
+    private final String traceId;
+
+    /**
+     * 快照生成的时间戳，ms
+     */
+    private final long timestamp;
+
+    /**
+     * 提交线程开始等待异步任务(allExecuted)的时刻，相对于trace开始的偏移；-1 表示未知
+     */
+    private long joinStartOffset = -1;
+
+    /**
+     * 根节点，即trace本身
+     */
+    private final TraceSpan root;
+
+    /**
+     * 全部的执行节点，按照id排序
+     */
+    private final List<TraceSpan> spans;
+
+    /**
+     * 按照任务名聚合的统计
+     */
+    private Map<String, TaskStat> stats;
+
+    /**
+     * 按照任务名聚合的耗时，兼容原有的输出方式
+     */
+    private Map<String, Long> cost;
+
+    /**
+     * 关键路径，延迟计算
+     */
+    private CriticalPath criticalPath;
+
+    private ParallelismReport parallelism;
+
+    private TraceSnapshot(String traceName, String traceId, long timestamp, TraceSpan root, List<TraceSpan> spans) {
+        this.traceName = traceName;
+        this.traceId = traceId;
+        this.timestamp = timestamp;
+        this.root = root;
+        this.spans = spans;
+    }
+
+    /**
+     * 根据记录的节点，构建执行树
+     *
+     * @param traceName trace名
+     * @param spans     执行节点，要求按照id排序，且第一个为根节点
+     * @return 快照
+     */
+    public static TraceSnapshot of(String traceName, List<TraceSpan> spans) {
+        return of(traceName, null, spans);
+    }
+
+    /**
+     * 根据记录的节点，构建执行树
+     *
+     * @param traceName trace名
+     * @param traceId   全链路id
+     * @param spans     执行节点，要求按照id排序，且第一个为根节点
+     * @return 快照
+     */
+    public static TraceSnapshot of(String traceName, String traceId, List<TraceSpan> spans) {
+        return of(traceName, traceId, System.currentTimeMillis(), spans);
+    }
+
+    /**
+     * 根据记录的节点，构建执行树，用于从离线文件中还原快照
+     *
+     * @param traceName trace名
+     * @param traceId   全链路id
+     * @param timestamp trace结束的时间戳，ms
+     * @param spans     执行节点，要求按照id排序，且第一个为根节点
+     * @return 快照
+     */
+    public static TraceSnapshot of(String traceName, String traceId, long timestamp, List<TraceSpan> spans) {
+        Map<Integer, TraceSpan> index = new HashMap<>(spans.size() << 1);
+        for (TraceSpan span : spans) {
+            index.put(span.getId(), span);
+        }
+        for (TraceSpan span : spans) {
+            TraceSpan parent = index.get(span.getParentId());
+            if (parent != null) {
+                parent.addChild(span);
+            }
+        }
+        spans.forEach(TraceSpan::complete);
+        return new TraceSnapshot(traceName, traceId, timestamp, spans.get(0), Collections.unmodifiableList(spans));
+    }
+
+    public String getTraceName() {
+        return traceName;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * @return 快照生成(即trace结束)的时间戳，ms
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getJoinStartOffset() {
+        return joinStartOffset;
+    }
+
+    /**
+     * 记录提交线程开始等待异步任务的时刻
+     *
+     * @param joinStartOffset 相对于trace开始的偏移
+     * @return 快照
+     */
+    public TraceSnapshot markJoinStart(long joinStartOffset) {
+        this.joinStartOffset = joinStartOffset;
+        return this;
+    }
+
+    public TraceSpan getRoot() {
+        return root;
+    }
+
+    public List<TraceSpan> getSpans() {
+        return spans;
+    }
+
+    public long getTotalCost() {
+        return root.getCost();
+    }
+
+    /**
+     * @return 退化为在提交线程中执行的异步任务数，大于0说明线程池已经饱和
+     */
+    public int getCallerRunsCount() {
+        int count = 0;
+        for (TraceSpan span : spans) {
+            if (span.isCallerRuns()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 同名任务的聚合统计，包含trace本身，按照任务名排序
+     *
+     * @return 任务名 -> 统计
+     */
+    public Map<String, TaskStat> getTaskStats() {
+        if (stats == null) {
+            Map<String, TaskStat> map = new TreeMap<>();
+            for (TraceSpan span : spans) {
+                TaskStat stat = map.computeIfAbsent(span.getName(), TaskStat::new);
+                stat.record(span.getCost(), span.isTimeout(), span.getQueueCost());
+                if (span.isCallerRuns()) {
+                    stat.recordCallerRuns();
+                }
+            }
+            stats = map;
+        }
+        return stats;
+    }
+
+    /**
+     * 扁平化的耗时分布，key为任务名，包含trace本身，按照任务名排序
+     * 同名任务执行多次时，取累计耗时
+     *
+     * @return 任务耗时，纳秒
+     */
+    public Map<String, Long> getCost() {
+        if (cost == null) {
+            Map<String, Long> map = new LinkedHashMap<>();
+            getTaskStats().forEach((k, v) -> map.put(k, v.getSum()));
+            cost = map;
+        }
+        return cost;
+    }
+
+    /**
+     * @return 关键路径与各个任务的松弛时间
+     */
+    public CriticalPath getCriticalPath() {
+        if (criticalPath == null) {
+            criticalPath = CriticalPath.of(this);
+        }
+        return criticalPath;
+    }
+
+    /**
+     * @return 并行效率
+     */
+    public ParallelismReport getParallelism() {
+        if (parallelism == null) {
+            parallelism = ParallelismReport.of(this);
+        }
+        return parallelism;
+    }
+
+    /**
+     * @return 是否包含异步任务，只有同步任务时，所有任务都串行执行在关键路径上
+     */
+    public boolean hasAsync() {
+        for (TraceSpan span : spans) {
+            if (span.isAsync()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
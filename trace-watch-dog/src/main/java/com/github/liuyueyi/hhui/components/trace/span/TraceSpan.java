@@ -0,0 +1,237 @@
+package com.github.liuyueyi.hhui.components.trace.span;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一次任务执行的记录节点，多个节点根据 parentId 组成一棵执行树
+ * <p>
+ * 所有的时间单位都是纳秒
+ *
+ * @author YiHui
+ * @date 2024/9/3
+ */
+public class TraceSpan {
+    /**
+     * 根节点(即trace本身)的 parentId
+     */
+    public static final int NO_PARENT = -1;
+
+    /**
+     * 节点id，同一个trace内唯一
+     */
+    private final int id;
+
+    /**
+     * 父节点id
+     */
+    private final int parentId;
+
+    /**
+     * 任务名
+     */
+    private final String name;
+
+    /**
+     * 是否为异步执行
+     */
+    private final boolean async;
+
+    /**
+     * 相对于trace开始的偏移时间
+     */
+    private final long startOffset;
+
+    /**
+     * 总耗时
+     */
+    private final long cost;
+
+    /**
+     * 是否超时，超时的任务耗时记录到等待结束的时刻
+     */
+    private final boolean timeout;
+
+    /**
+     * 异步任务从提交到开始执行，在线程池中的排队耗时；同步任务为0
+     */
+    private final long queueCost;
+
+    /**
+     * 异步任务是否因为线程池已满，退化为在提交线程中执行
+     */
+    private boolean callerRuns;
+
+    /**
+     * 执行任务的线程，超时前未开始执行的任务为null
+     */
+    private String threadName;
+
+    private long threadId;
+
+    /**
+     * 自身耗时，即总耗时扣除子任务执行的部分
+     */
+    private long selfCost;
+
+    private final List<TraceSpan> children;
+
+    public TraceSpan(int id, int parentId, String name, boolean async, long startOffset, long cost) {
+        this(id, parentId, name, async, startOffset, cost, false);
+    }
+
+    public TraceSpan(int id, int parentId, String name, boolean async, long startOffset, long cost, boolean timeout) {
+        this(id, parentId, name, async, startOffset, cost, timeout, 0);
+    }
+
+    public TraceSpan(int id, int parentId, String name, boolean async, long startOffset, long cost, boolean timeout, long queueCost) {
+        this.id = id;
+        this.parentId = parentId;
+        this.name = name;
+        this.async = async;
+        this.startOffset = startOffset;
+        this.cost = cost;
+        this.timeout = timeout;
+        this.queueCost = queueCost;
+        this.selfCost = cost;
+        this.children = new ArrayList<>(2);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getParentId() {
+        return parentId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public long getStartOffset() {
+        return startOffset;
+    }
+
+    public long getEndOffset() {
+        return startOffset + cost;
+    }
+
+    public long getCost() {
+        return cost;
+    }
+
+    public boolean isTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return 排队耗时，cost 为执行耗时，不包含排队的部分
+     */
+    public long getQueueCost() {
+        return queueCost;
+    }
+
+    public boolean isCallerRuns() {
+        return callerRuns;
+    }
+
+    /**
+     * 标记异步任务退化为在提交线程中执行
+     *
+     * @return
+     */
+    public TraceSpan markCallerRuns() {
+        this.callerRuns = true;
+        return this;
+    }
+
+    public String getThreadName() {
+        return threadName;
+    }
+
+    public long getThreadId() {
+        return threadId;
+    }
+
+    /**
+     * 记录执行任务的线程
+     *
+     * @param threadName 线程名
+     * @param threadId   线程id
+     * @return
+     */
+    public TraceSpan markThread(String threadName, long threadId) {
+        this.threadName = threadName;
+        this.threadId = threadId;
+        return this;
+    }
+
+    public long getSelfCost() {
+        return selfCost;
+    }
+
+    /**
+     * @return 按照开始时间排序的子任务
+     */
+    public List<TraceSpan> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    void addChild(TraceSpan child) {
+        children.add(child);
+    }
+
+    /**
+     * 子任务排序，并计算自身耗时
+     * 异步的子任务之间可能存在重叠，因此扣除的是子任务执行区间的并集，保证自身耗时不会出现负数
+     */
+    void complete() {
+        if (children.isEmpty()) {
+            return;
+        }
+
+        children.sort((a, b) -> Long.compare(a.startOffset, b.startOffset));
+        long covered = 0;
+        long from = startOffset, to = startOffset;
+        long end = getEndOffset();
+        for (TraceSpan child : children) {
+            long s = Math.max(child.startOffset, startOffset);
+            long e = Math.min(child.getEndOffset(), end);
+            if (e <= s) {
+                continue;
+            }
+            if (s > to) {
+                covered += to - from;
+                from = s;
+                to = e;
+            } else if (e > to) {
+                to = e;
+            }
+        }
+        covered += to - from;
+        selfCost = Math.max(0, cost - covered);
+    }
+
+    @Override
+    public String toString() {
+        return "TraceSpan{" +
+                "id=" + id +
+                ", parentId=" + parentId +
+                ", name='" + name + '\'' +
+                ", async=" + async +
+                ", startOffset=" + startOffset +
+                ", cost=" + cost +
+                ", timeout=" + timeout +
+                ", queueCost=" + queueCost +
+                ", callerRuns=" + callerRuns +
+                ", threadName='" + threadName + '\'' +
+                ", selfCost=" + selfCost +
+                '}';
+    }
+}
@@ -0,0 +1,163 @@
+package com.github.liuyueyi.hhui.components.trace.stat;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁的耗时分布记录器
+ * <p>
+ * - 桶的划分采用 log-linear 的方式(与 HdrHistogram 类似)：每个2的幂次区间再线性切分为 8 个子桶，相对误差不超过 12.5%
+ * - 计数按照线程分散到多个条带(stripe)上，多核并发记录时不会竞争同一个缓存行，读取时再合并
+ * - 条带与 LongAdder 的 cell 一样按需分配：初始只有一个条带(约 2.5KB)，只有出现CAS竞争时才翻倍，
+ *   因此大量低频的 trace/任务名 只占用一个条带，最多 8 个条带(约 20KB)只会出现在真正高并发记录的名字上
+ * <p>
+ * 所有的时间单位都是纳秒
+ *
+ * @author YiHui
+ * @date 2024/9/12
+ */
+public class LatencyRecorder {
+    /**
+     * 每个2的幂次区间切分的子桶数 = 2^SUB_BITS
+     */
+    static final int SUB_BITS = 3;
+    static final int SUB_COUNT = 1 << SUB_BITS;
+    /**
+     * 可以区分的最大耗时 2^41 ns，约36分钟，更大的耗时都记录在单独的溢出桶(最后一个桶)中
+     */
+    static final int MAX_EXP = 40;
+    /**
+     * [0, 2^(SUB_BITS+1)) 每个耗时一个桶，之后每个2的幂次区间 SUB_COUNT 个桶，最后再加一个溢出桶
+     */
+    public static final int BUCKETS = (MAX_EXP - SUB_BITS + 2) * SUB_COUNT + 1;
+    static final int OVERFLOW = BUCKETS - 1;
+
+    /**
+     * 最多分配的条带数
+     */
+    private static final int STRIPES;
+
+    static {
+        int cpu = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < cpu && stripes < 8) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    /**
+     * 已分配的条带，长度为2的幂次，只会增长，扩容时只复制条带的引用
+     */
+    private final AtomicReference<AtomicLongArray[]> stripes =
+            new AtomicReference<>(new AtomicLongArray[]{new AtomicLongArray(BUCKETS)});
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * 记录一次耗时
+     *
+     * @param cost 耗时，纳秒
+     */
+    public void record(long cost) {
+        if (cost < 0) {
+            cost = 0;
+        }
+        int bucket = bucket(cost);
+        int hash = (int) Thread.currentThread().getId();
+        AtomicLongArray[] dir = stripes.get();
+        AtomicLongArray counts = dir[hash & (dir.length - 1)];
+        long v = counts.get(bucket);
+        if (!counts.compareAndSet(bucket, v, v + 1)) {
+            // 出现竞争，扩容之后再记录
+            dir = grow(dir);
+            dir[hash & (dir.length - 1)].incrementAndGet(bucket);
+        }
+        sum.add(cost);
+        max.accumulate(cost);
+    }
+
+    /**
+     * 条带数翻倍，已经达到上限或者其他线程已经扩容时直接返回当前的条带
+     *
+     * @param dir 出现竞争时的条带
+     * @return 扩容之后的条带
+     */
+    private AtomicLongArray[] grow(AtomicLongArray[] dir) {
+        if (dir.length >= STRIPES) {
+            return dir;
+        }
+        AtomicLongArray[] next = Arrays.copyOf(dir, dir.length << 1);
+        for (int i = dir.length; i < next.length; i++) {
+            next[i] = new AtomicLongArray(BUCKETS);
+        }
+        return stripes.compareAndSet(dir, next) ? next : stripes.get();
+    }
+
+    /**
+     * @return 当前已分配的条带数
+     */
+    public int getStripeCount() {
+        return stripes.get().length;
+    }
+
+    /**
+     * @return 合并所有条带之后的快照
+     */
+    public LatencySnapshot snapshot() {
+        long[] merged = new long[BUCKETS];
+        for (AtomicLongArray counts : stripes.get()) {
+            for (int i = 0; i < BUCKETS; i++) {
+                merged[i] += counts.get(i);
+            }
+        }
+        return new LatencySnapshot(merged, sum.sum(), max.get());
+    }
+
+    /**
+     * 清空记录
+     */
+    public void reset() {
+        for (AtomicLongArray counts : stripes.get()) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+        }
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * 耗时所在的桶
+     *
+     * @param cost 纳秒
+     * @return 下标
+     */
+    static int bucket(long cost) {
+        if (cost < SUB_COUNT << 1) {
+            return (int) cost;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(cost);
+        if (exp > MAX_EXP) {
+            return OVERFLOW;
+        }
+        int shift = exp - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int) (cost >>> shift) - SUB_COUNT;
+    }
+
+    /**
+     * @param bucket 桶下标
+     * @return 桶内的最大耗时
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_COUNT << 1) {
+            return bucket;
+        }
+        int shift = bucket / SUB_COUNT - 1;
+        long mantissa = bucket % SUB_COUNT + SUB_COUNT;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,92 @@
+package com.github.liuyueyi.hhui.components.trace.stat;
+
+/**
+ * 耗时分布的快照
+ * <p>
+ * 所有的时间单位都是纳秒
+ *
+ * @author YiHui
+ * @date 2024/9/12
+ */
+public class LatencySnapshot {
+    private final long[] buckets;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    LatencySnapshot(long[] buckets, long sum, long max) {
+        this.buckets = buckets;
+        long count = 0;
+        for (long c : buckets) {
+            count += c;
+        }
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * 分位数，取所在桶的上界(不超过最大值)，相对误差不超过 12.5%
+     *
+     * @param percentile 分位，如 0.99
+     * @return 耗时，纳秒
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(Math.min(1, Math.max(0, percentile)) * count);
+        if (rank <= 0) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                // 最后一个桶没有上界
+                return i == buckets.length - 1 ? max : Math.min(max, LatencyRecorder.upperBound(i));
+            }
+        }
+        return max;
+    }
+
+    public long getP50() {
+        return getPercentile(0.5);
+    }
+
+    public long getP90() {
+        return getPercentile(0.9);
+    }
+
+    public long getP99() {
+        return getPercentile(0.99);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencySnapshot{" +
+                "count=" + count +
+                ", mean=" + getMean() +
+                ", p50=" + getP50() +
+                ", p90=" + getP90() +
+                ", p99=" + getP99() +
+                ", max=" + max +
+                '}';
+    }
+}
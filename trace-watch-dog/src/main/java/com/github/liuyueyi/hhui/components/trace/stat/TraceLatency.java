@@ -0,0 +1,91 @@
+package com.github.liuyueyi.hhui.components.trace.stat;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 同一个trace名的跨请求耗时统计，包含trace整体耗时及其中每个任务的耗时分布
+ *
+ * @author YiHui
+ * @date 2024/9/12
+ */
+public class TraceLatency {
+    /**
+     * 单个trace下最多统计的任务名数量，避免任务名中带有动态参数时无限增长
+     * <p>
+     * 每个任务名的记录器初始只占用一个条带(约 2.5KB)，只有被高并发记录时才会扩容，见 {@link LatencyRecorder}
+     */
+    public static final int MAX_TASKS = 256;
+
+    private final String traceName;
+    private final LatencyRecorder total = new LatencyRecorder();
+    private final ConcurrentMap<String, LatencyRecorder> tasks = new ConcurrentHashMap<>();
+    /**
+     * 超过任务名数量限制，被丢弃的记录数
+     */
+    private final LongAdder overflow = new LongAdder();
+
+    TraceLatency(String traceName) {
+        this.traceName = traceName;
+    }
+
+    public String getTraceName() {
+        return traceName;
+    }
+
+    void recordTotal(long cost) {
+        total.record(cost);
+    }
+
+    void recordTask(String task, long cost) {
+        LatencyRecorder recorder = tasks.get(task);
+        if (recorder == null) {
+            if (tasks.size() >= MAX_TASKS) {
+                overflow.increment();
+                return;
+            }
+            recorder = tasks.computeIfAbsent(task, k -> new LatencyRecorder());
+        }
+        recorder.record(cost);
+    }
+
+    /**
+     * @return trace整体耗时分布
+     */
+    public LatencySnapshot getTotal() {
+        return total.snapshot();
+    }
+
+    /**
+     * @param task 任务名
+     * @return 任务的耗时分布，不存在时返回null
+     */
+    public LatencySnapshot getTask(String task) {
+        LatencyRecorder recorder = tasks.get(task);
+        return recorder == null ? null : recorder.snapshot();
+    }
+
+    /**
+     * @return 所有任务的耗时分布，按照任务名排序
+     */
+    public Map<String, LatencySnapshot> getTasks() {
+        Map<String, LatencySnapshot> ans = new LinkedHashMap<>();
+        new TreeMap<>(tasks).forEach((k, v) -> ans.put(k, v.snapshot()));
+        return Collections.unmodifiableMap(ans);
+    }
+
+    public long getOverflowCount() {
+        return overflow.sum();
+    }
+
+    void reset() {
+        total.reset();
+        tasks.clear();
+        overflow.reset();
+    }
+}
@@ -0,0 +1,229 @@
+package com.github.liuyueyi.hhui.components.trace.stat;
+
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSpan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 全局的跨请求耗时统计，按照 trace名 + 任务名 记录耗时分布
+ * <p>
+ * 通过 TraceWatch.registerOutput(StatisticsOutput.INSTANCE) 开启，每个结束的trace都会记录一次
+ * 通过 TraceWatch.enableJmx(true) 开启时，同时以 MBean 的方式暴露
+ *
+ * @author YiHui
+ * @date 2024/9/12
+ */
+public class TraceStatistics {
+    private static final Logger log = LoggerFactory.getLogger(TraceStatistics.class);
+
+    /**
+     * JMX 中的域名
+     */
+    public static final String JMX_DOMAIN = "com.github.liuyueyi.hhui.trace";
+    /**
+     * 最多统计的trace名数量，避免trace名中带有动态参数时无限增长
+     */
+    public static final int MAX_TRACES = 1024;
+
+    private static final ConcurrentMap<String, TraceLatency> TRACES = new ConcurrentHashMap<>();
+
+    /**
+     * 超过trace名数量限制，被丢弃的记录数
+     */
+    private static final LongAdder OVERFLOW = new LongAdder();
+
+    /**
+     * 是否为每个trace名注册 MBean
+     */
+    private static volatile boolean jmxEnabled = false;
+
+    private TraceStatistics() {
+    }
+
+    /**
+     * 记录一次trace的执行情况，trace整体记录根节点的耗时，每个任务记录单次执行的耗时
+     *
+     * @param snapshot 执行快照
+     */
+    public static void record(TraceSnapshot snapshot) {
+        TraceLatency latency = obtain(snapshot.getTraceName());
+        if (latency == null) {
+            return;
+        }
+        TraceSpan root = snapshot.getRoot();
+        for (TraceSpan span : snapshot.getSpans()) {
+            if (span == root) {
+                latency.recordTotal(span.getCost());
+            } else {
+                latency.recordTask(span.getName(), span.getCost());
+            }
+        }
+    }
+
+    /**
+     * 记录一次trace的执行情况，只有各任务的累计耗时时使用
+     *
+     * @param traceName trace名
+     * @param cost      任务耗时，纳秒，包含trace本身
+     */
+    public static void record(String traceName, Map<String, Long> cost) {
+        TraceLatency latency = obtain(traceName);
+        if (latency == null) {
+            return;
+        }
+        cost.forEach((k, v) -> {
+            if (k.equals(traceName)) {
+                latency.recordTotal(v);
+            } else {
+                latency.recordTask(k, v);
+            }
+        });
+    }
+
+    private static TraceLatency obtain(String traceName) {
+        TraceLatency latency = TRACES.get(traceName);
+        if (latency == null) {
+            if (TRACES.size() >= MAX_TRACES) {
+                OVERFLOW.increment();
+                return null;
+            }
+            TraceLatency created = new TraceLatency(traceName);
+            latency = TRACES.putIfAbsent(traceName, created);
+            if (latency == null) {
+                latency = created;
+                if (jmxEnabled) {
+                    registerMBean(created);
+                }
+            }
+        }
+        return latency;
+    }
+
+    /**
+     * 开启之后，每个trace名都会注册一个 TraceStatsMXBean，ObjectName 为 com.github.liuyueyi.hhui.trace:type=TraceStats,name="trace名"；
+     * 全局指标注册一个 TraceWatchStatsMXBean，ObjectName 为 com.github.liuyueyi.hhui.trace:type=TraceWatch
+     *
+     * @param enable true 表示开启，false 时注销已经注册的 MBean
+     */
+    public static synchronized void enableJmx(boolean enable) {
+        if (jmxEnabled == enable) {
+            return;
+        }
+        jmxEnabled = enable;
+        if (enable) {
+            register(new TraceWatchStats(), globalObjectName());
+        } else {
+            unregister(globalObjectName());
+        }
+        for (TraceLatency latency : TRACES.values()) {
+            if (enable) {
+                registerMBean(latency);
+            } else {
+                unregisterMBean(latency.getTraceName());
+            }
+        }
+    }
+
+    public static boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    /**
+     * @param traceName trace名
+     * @return MBean 的名称
+     */
+    public static ObjectName objectName(String traceName) {
+        try {
+            return new ObjectName(JMX_DOMAIN + ":type=TraceStats,name=" + ObjectName.quote(traceName));
+        } catch (JMException e) {
+            throw new IllegalArgumentException("illegal trace name: " + traceName, e);
+        }
+    }
+
+    /**
+     * @return 全局指标 MBean 的名称
+     */
+    public static ObjectName globalObjectName() {
+        try {
+            return new ObjectName(JMX_DOMAIN + ":type=TraceWatch");
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void registerMBean(TraceLatency latency) {
+        register(new TraceStats(latency), objectName(latency.getTraceName()));
+    }
+
+    private static void unregisterMBean(String traceName) {
+        unregister(objectName(traceName));
+    }
+
+    private static void register(Object mbean, ObjectName name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(mbean, name);
+        } catch (InstanceAlreadyExistsException e) {
+            // 已经注册过
+        } catch (JMException | RuntimeException e) {
+            log.warn("register trace mbean error! {}", name, e);
+        }
+    }
+
+    private static void unregister(ObjectName name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (InstanceNotFoundException e) {
+            // 未注册
+        } catch (JMException | RuntimeException e) {
+            log.warn("unregister trace mbean error! {}", name, e);
+        }
+    }
+
+    /**
+     * @param traceName trace名
+     * @return trace的耗时统计，不存在时返回null
+     */
+    public static TraceLatency get(String traceName) {
+        return TRACES.get(traceName);
+    }
+
+    /**
+     * @return 所有的trace名，按照名称排序
+     */
+    public static Set<String> getTraceNames() {
+        return new TreeSet<>(TRACES.keySet());
+    }
+
+    public static long getOverflowCount() {
+        return OVERFLOW.sum();
+    }
+
+    /**
+     * 清空所有统计
+     */
+    public static void reset() {
+        for (TraceLatency latency : TRACES.values()) {
+            latency.reset();
+            if (jmxEnabled) {
+                unregisterMBean(latency.getTraceName());
+            }
+        }
+        TRACES.clear();
+        OVERFLOW.reset();
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.liuyueyi.hhui.components.trace.stat;
+
+import java.util.Map;
+
+/**
+ * TraceStatsMXBean 的实现，所有的读取都基于 LatencyRecorder 的快照，不会影响记录耗时的线程
+ *
+ * @author YiHui
+ * @date 2024/9/12
+ */
+public class TraceStats implements TraceStatsMXBean {
+    private final TraceLatency latency;
+
+    public TraceStats(TraceLatency latency) {
+        this.latency = latency;
+    }
+
+    @Override
+    public String getTraceName() {
+        return latency.getTraceName();
+    }
+
+    @Override
+    public long getCount() {
+        return latency.getTotal().getCount();
+    }
+
+    @Override
+    public LatencySnapshot getLatency() {
+        return latency.getTotal();
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getTaskLatencies() {
+        return latency.getTasks();
+    }
+
+    @Override
+    public long getTaskOverflowCount() {
+        return latency.getOverflowCount();
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+    }
+}
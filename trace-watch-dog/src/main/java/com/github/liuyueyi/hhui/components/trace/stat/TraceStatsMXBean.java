@@ -0,0 +1,41 @@
+package com.github.liuyueyi.hhui.components.trace.stat;
+
+import java.util.Map;
+
+/**
+ * 单个trace的耗时统计，通过 JMX 暴露，可以直接使用 jconsole 或者 JMX 采集工具查看
+ * <p>
+ * 耗时单位都是纳秒；线程池、输出队列等全局指标见 TraceWatchStatsMXBean
+ *
+ * @author YiHui
+ * @date 2024/9/12
+ */
+public interface TraceStatsMXBean {
+
+    String getTraceName();
+
+    /**
+     * @return 被记录的trace次数
+     */
+    long getCount();
+
+    /**
+     * @return trace整体的耗时分布
+     */
+    LatencySnapshot getLatency();
+
+    /**
+     * @return 任务名 -> 耗时分布
+     */
+    Map<String, LatencySnapshot> getTaskLatencies();
+
+    /**
+     * @return 超过任务名数量限制，未被统计的记录数
+     */
+    long getTaskOverflowCount();
+
+    /**
+     * 清空当前trace的统计
+     */
+    void reset();
+}
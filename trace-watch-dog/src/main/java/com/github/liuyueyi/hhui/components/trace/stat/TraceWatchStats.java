@@ -0,0 +1,45 @@
+package com.github.liuyueyi.hhui.components.trace.stat;
+
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.async.AsyncUtil;
+import com.github.liuyueyi.hhui.components.trace.async.ExecutorMetrics;
+import com.github.liuyueyi.hhui.components.trace.output.AsyncOutputDispatcher;
+
+/**
+ * TraceWatchStatsMXBean 的实现，每次读取时实时获取
+ *
+ * @author YiHui
+ * @date 2024/9/12
+ */
+public class TraceWatchStats implements TraceWatchStatsMXBean {
+
+    @Override
+    public long getCallerRunsCount() {
+        ExecutorMetrics metrics = AsyncUtil.getExecutorMetrics();
+        return metrics == null ? 0 : metrics.getCallerRunsCount();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        ExecutorMetrics metrics = AsyncUtil.getExecutorMetrics();
+        return metrics == null ? 0 : metrics.getRejectedCount();
+    }
+
+    @Override
+    public long getActiveCount() {
+        ExecutorMetrics metrics = AsyncUtil.getExecutorMetrics();
+        return metrics == null ? 0 : metrics.getActiveCount();
+    }
+
+    @Override
+    public int getLargestPoolSize() {
+        ExecutorMetrics metrics = AsyncUtil.getExecutorMetrics();
+        return metrics == null ? 0 : metrics.getLargestPoolSize();
+    }
+
+    @Override
+    public long getDroppedOutputCount() {
+        AsyncOutputDispatcher dispatcher = TraceWatch.getOutputDispatcher();
+        return dispatcher == null ? 0 : dispatcher.getDroppedCount();
+    }
+}
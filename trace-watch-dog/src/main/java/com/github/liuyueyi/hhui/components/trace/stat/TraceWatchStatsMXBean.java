@@ -0,0 +1,38 @@
+package com.github.liuyueyi.hhui.components.trace.stat;
+
+/**
+ * 与具体trace无关的全局指标，通过 JMX 只暴露一份
+ * <p>
+ * 线程池相关的指标只统计默认线程池(AsyncUtil 中的线程池)；使用自定义线程池、虚拟线程、ForkJoinPool 开启的trace不在其中，
+ * 因此不放在按trace名注册的 TraceStatsMXBean 中，避免将其他线程池的饱和情况误认为是某个trace的
+ *
+ * @author YiHui
+ * @date 2024/9/12
+ */
+public interface TraceWatchStatsMXBean {
+
+    /**
+     * @return 默认线程池中，退化为在提交线程中执行的任务数
+     */
+    long getCallerRunsCount();
+
+    /**
+     * @return 默认线程池拒绝的任务数
+     */
+    long getRejectedCount();
+
+    /**
+     * @return 默认线程池中正在执行的任务数
+     */
+    long getActiveCount();
+
+    /**
+     * @return 默认线程池的历史最大线程数
+     */
+    int getLargestPoolSize();
+
+    /**
+     * @return 异步输出队列满时丢弃的快照数
+     */
+    long getDroppedOutputCount();
+}
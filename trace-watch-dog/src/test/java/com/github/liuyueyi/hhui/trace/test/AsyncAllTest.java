@@ -0,0 +1,93 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.recoder.ITraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.recoder.SyncTraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.span.TaskStat;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量异步执行
+ *
+ * @author YiHui
+ * @date 2024/9/10
+ */
+public class AsyncAllTest {
+
+    private static List<Integer> ids(int n) {
+        List<Integer> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            list.add(i);
+        }
+        return list;
+    }
+
+    @Test
+    public void testBoundedParallelism() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        try (ITraceRecoder recoder = TraceWatch.startTrace("asyncAll", false)) {
+            CompletableFuture<List<Integer>> future = recoder.asyncAll(ids(200), id -> {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                return id * 2;
+            }, "query", 4, 3);
+
+            List<Integer> ans = future.join();
+            Assert.assertEquals(200, ans.size());
+            for (int i = 0; i < 200; i++) {
+                Assert.assertEquals(i * 2, (int) ans.get(i));
+            }
+            Assert.assertTrue("peak " + peak.get(), peak.get() <= 4);
+
+            TraceSnapshot snapshot = ((DefaultTraceRecoder) recoder).snapshot();
+            Map<String, TaskStat> stats = snapshot.getTaskStats();
+            Assert.assertEquals(200, stats.get("query").getCount());
+            Assert.assertEquals(4, stats.get("query(异步)").getCount());
+        }
+    }
+
+    @Test
+    public void testFailure() {
+        AtomicInteger count = new AtomicInteger();
+        try (ITraceRecoder recoder = TraceWatch.startTrace("asyncAll-fail", false)) {
+            CompletableFuture<List<Integer>> future = recoder.asyncAll(ids(1000), id -> {
+                count.incrementAndGet();
+                if (id == 10) {
+                    throw new IllegalStateException("fail " + id);
+                }
+                return id;
+            }, "query", 2);
+            try {
+                future.join();
+                Assert.fail();
+            } catch (CompletionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            // 失败之后不再领取新的输入
+            Assert.assertTrue(count.get() < 1000);
+        }
+    }
+
+    @Test
+    public void testSyncRecoder() {
+        List<Integer> ans = SyncTraceRecoder.SYNC_RECODER.asyncAll(ids(10), id -> id + 1, "sync", 3).join();
+        Assert.assertEquals(10, ans.size());
+        Assert.assertEquals(10, (int) ans.get(9));
+    }
+}
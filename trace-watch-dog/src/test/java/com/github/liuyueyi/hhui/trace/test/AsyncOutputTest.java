@@ -0,0 +1,112 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.async.AsyncUtil;
+import com.github.liuyueyi.hhui.components.trace.output.AsyncOutputDispatcher;
+import com.github.liuyueyi.hhui.components.trace.output.CostOutput;
+import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.recoder.ITraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 异步输出
+ *
+ * @author YiHui
+ * @date 2024/9/12
+ */
+public class AsyncOutputTest {
+
+    @After
+    public void reset() {
+        TraceWatch.disableAsyncOutput();
+    }
+
+    @Test
+    public void testOutputOffThread() throws InterruptedException {
+        TraceWatch.enableAsyncOutput(16, AsyncOutputDispatcher.OverflowPolicy.BLOCK);
+        CountDownLatch latch = new CountDownLatch(20);
+        String[] threads = new String[1];
+        for (int i = 0; i < 20; i++) {
+            try (ITraceRecoder recoder = TraceWatch.startTrace("async-output-" + i, false)) {
+                ((DefaultTraceRecoder) recoder).addOutput((cost, traceName) -> {
+                    threads[0] = Thread.currentThread().getName();
+                    latch.countDown();
+                });
+                recoder.sync(() -> {
+                }, "task");
+            }
+        }
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals("trace-watch-dog-output", threads[0]);
+        Assert.assertEquals(0, TraceWatch.getOutputDispatcher().getDroppedCount());
+    }
+
+    @Test
+    public void testDrop() throws InterruptedException {
+        AsyncOutputDispatcher dispatcher = new AsyncOutputDispatcher(2, AsyncOutputDispatcher.OverflowPolicy.DROP);
+        CountDownLatch block = new CountDownLatch(1);
+        List<CostOutput> slow = Collections.singletonList((Map<String, Long> cost, String traceName) -> {
+            try {
+                block.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        TraceSnapshot snapshot = new DefaultTraceRecoder(AsyncUtil.executorService, "drop", false).snapshot();
+        int accepted = 0;
+        for (int i = 0; i < 10; i++) {
+            if (dispatcher.publish(snapshot, slow, false)) {
+                accepted++;
+            }
+        }
+        // 后台线程最多取走一个，阻塞在输出中；队列中最多再放两个
+        Assert.assertTrue("accepted: " + accepted, accepted >= 2 && accepted <= 3);
+        Assert.assertEquals(10 - accepted, dispatcher.getDroppedCount());
+        block.countDown();
+        dispatcher.shutdown(1, TimeUnit.SECONDS);
+        Assert.assertEquals(0, dispatcher.getPendingCount());
+    }
+
+    @Test
+    public void testShutdownWhilePublishing() throws InterruptedException {
+        AsyncOutputDispatcher dispatcher = new AsyncOutputDispatcher(8, AsyncOutputDispatcher.OverflowPolicy.BLOCK);
+        LongAdder output = new LongAdder();
+        LongAdder accepted = new LongAdder();
+        List<CostOutput> counter = Collections.singletonList((Map<String, Long> cost, String traceName) -> output.increment());
+        TraceSnapshot snapshot = new DefaultTraceRecoder(AsyncUtil.executorService, "shutdown", false).snapshot();
+        int producers = 4, count = 20_000;
+        CountDownLatch started = new CountDownLatch(producers);
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            threads[i] = new Thread(() -> {
+                started.countDown();
+                for (int j = 0; j < count; j++) {
+                    if (dispatcher.publish(snapshot, counter, false)) {
+                        accepted.increment();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        started.await();
+        dispatcher.shutdown(5, TimeUnit.SECONDS);
+        for (Thread thread : threads) {
+            // 调度器停止之后，阻塞等待槽位的生产者也会返回
+            thread.join(5000);
+            Assert.assertFalse(thread.isAlive());
+        }
+        // 被接收的快照都已输出，其余的都计入丢弃
+        Assert.assertEquals(accepted.sum(), output.sum());
+        Assert.assertEquals(producers * count - accepted.sum(), dispatcher.getDroppedCount());
+    }
+}
@@ -0,0 +1,177 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.mdc.MdcUtil;
+import com.github.liuyueyi.hhui.components.trace.output.binary.BinaryTraceOutput;
+import com.github.liuyueyi.hhui.components.trace.output.binary.BinaryTraceReader;
+import com.github.liuyueyi.hhui.components.trace.recoder.ITraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSpan;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+/**
+ * 二进制文件输出与离线读取
+ *
+ * @author YiHui
+ * @date 2024/9/13
+ */
+public class BinaryTraceOutputTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        BinaryTraceOutput output = new BinaryTraceOutput(dir);
+        TraceWatch.registerOutput(output);
+        try {
+            MdcUtil.setGlobalTraceId("binary-trace-id");
+            try (ITraceRecoder recoder = TraceWatch.startTrace("binary", false)) {
+                recoder.sync(() -> sleep(5), "sync\"task");
+                recoder.async(() -> sleep(10), "asyncTask");
+            }
+        } finally {
+            MdcUtil.clear();
+            TraceWatch.getGlobalOutputStrategy().remove(output);
+            output.close();
+        }
+
+        List<TraceSnapshot> list = BinaryTraceReader.readAll(dir);
+        Assert.assertEquals(1, list.size());
+        TraceSnapshot snapshot = list.get(0);
+        Assert.assertEquals("binary", snapshot.getTraceName());
+        Assert.assertEquals("binary-trace-id", snapshot.getTraceId());
+        Assert.assertEquals(3, snapshot.getSpans().size());
+        Assert.assertEquals(2, snapshot.getRoot().getChildren().size());
+        TraceSpan async = snapshot.getSpans().stream().filter(TraceSpan::isAsync).findFirst().get();
+        Assert.assertEquals("asyncTask(异步)", async.getName());
+        Assert.assertTrue(async.getCost() >= 10_000_000);
+        Assert.assertTrue(snapshot.getTotalCost() >= async.getCost());
+
+        String text = BinaryTraceReader.toText(snapshot);
+        Assert.assertTrue(text, text.contains("traceId=binary-trace-id trace=binary"));
+        Assert.assertTrue(text, text.contains("\n    asyncTask(异步) start=+"));
+        String json = BinaryTraceReader.toJson(snapshot);
+        Assert.assertTrue(json, json.startsWith("{\"timestamp\":" + snapshot.getTimestamp()));
+        Assert.assertTrue(json, json.contains("\"name\":\"sync\\\"task\""));
+    }
+
+    @Test
+    public void testConcurrentRolling() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        // 每个文件只能写入少量记录，验证并发写入时的滚动与过期删除
+        BinaryTraceOutput output = new BinaryTraceOutput(dir, "roll", 4096, 1000);
+        int threads = 8, perThread = 200;
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    List<TraceSpan> spans = new ArrayList<>();
+                    spans.add(new TraceSpan(0, TraceSpan.NO_PARENT, "trace-" + thread, false, 0, 1000L * i));
+                    spans.add(new TraceSpan(1, 0, "task-" + (i % 5), true, 10, i, i % 7 == 0, 3));
+                    output.output(TraceSnapshot.of("trace-" + thread, thread + "-" + i, spans));
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        output.close();
+        Assert.assertEquals(0, output.getDroppedCount());
+
+        List<TraceSnapshot> list = BinaryTraceReader.readAll(dir);
+        Assert.assertEquals(threads * perThread, list.size());
+        Set<String> ids = new HashSet<>();
+        for (TraceSnapshot snapshot : list) {
+            ids.add(snapshot.getTraceId());
+            String[] parts = snapshot.getTraceId().split("-");
+            int i = Integer.parseInt(parts[1]);
+            Assert.assertEquals("trace-" + parts[0], snapshot.getTraceName());
+            Assert.assertEquals(1000L * i, snapshot.getTotalCost());
+            TraceSpan task = snapshot.getSpans().get(1);
+            Assert.assertEquals("task-" + (i % 5), task.getName());
+            Assert.assertEquals(i, task.getCost());
+            Assert.assertEquals(i % 7 == 0, task.isTimeout());
+            Assert.assertEquals(3, task.getQueueCost());
+        }
+        Assert.assertEquals(threads * perThread, ids.size());
+
+        // 超过保留数量时删除最早的文件
+        BinaryTraceOutput limited = new BinaryTraceOutput(dir, "roll", 4096, 2);
+        limited.outputNanos(new HashMap<>(), "limited");
+        limited.close();
+        try (Stream<Path> files = Files.list(dir)) {
+            Assert.assertEquals(2, files.count());
+        }
+        Assert.assertTrue(BinaryTraceReader.readAll(dir).stream().anyMatch(s -> s.getTraceName().equals("limited")));
+    }
+
+    @Test
+    public void testTooLargeAndForeignFiles() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        BinaryTraceOutput output = new BinaryTraceOutput(dir, "large", 4096, 4);
+        // 名称字典就超过了单个文件的大小，直接丢弃，不会无限滚动
+        List<TraceSpan> spans = new ArrayList<>();
+        spans.add(new TraceSpan(0, TraceSpan.NO_PARENT, "large", false, 0, 100));
+        for (int i = 1; i < 100; i++) {
+            spans.add(new TraceSpan(i, 0, "task-with-a-rather-long-name-" + i, false, 0, 1));
+        }
+        output.output(TraceSnapshot.of("large", spans));
+        Assert.assertEquals(1, output.getDroppedCount());
+        output.outputNanos(new HashMap<>(), "small");
+        output.close();
+
+        // 目录中其他的 .bin 文件不影响读取
+        Files.write(dir.resolve("foreign.bin"), new byte[]{1, 2, 3});
+        List<TraceSnapshot> list = BinaryTraceReader.readAll(dir);
+        Assert.assertEquals(1, list.size());
+        Assert.assertEquals("small", list.get(0).getTraceName());
+    }
+
+    @Test
+    public void testSkipForgedRecord() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        BinaryTraceOutput output = new BinaryTraceOutput(dir, "forged", 4096, 4);
+        output.outputNanos(new HashMap<>(), "small");
+        Path file = output.getCurrentFile();
+        output.close();
+
+        // 头部缺失的记录中，恰好像一条字典记录(magic、类型、长度都合法)的内容，校验和不匹配时不会被读取
+        ByteBuffer forged = ByteBuffer.allocate(24);
+        forged.putShort((short) 0x5452).put((byte) 1).put((byte) 0).putInt(24).putInt(0).putInt(6);
+        forged.put((byte) 0).put((byte) 5).put("evil".getBytes(StandardCharsets.UTF_8));
+        forged.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(forged, 4096 - 64);
+        }
+
+        List<TraceSnapshot> list = BinaryTraceReader.readAll(dir);
+        Assert.assertEquals(1, list.size());
+        Assert.assertEquals("small", list.get(0).getTraceName());
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.output.ChromeTraceOutput;
+import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSpan;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Chrome Trace Event 格式输出
+ *
+ * @author YiHui
+ * @date 2024/9/14
+ */
+public class ChromeTraceOutputTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TraceSnapshot trace(String name) {
+        DefaultTraceRecoder recoder = (DefaultTraceRecoder) TraceWatch.startTrace(name, false);
+        try {
+            recoder.sync(() -> sleep(2), "prepare");
+            recoder.async(() -> sleep(10), "rpc-1");
+            recoder.async(() -> sleep(10), "rpc-2");
+            return recoder.snapshot();
+        } finally {
+            recoder.close();
+        }
+    }
+
+    @Test
+    public void testThreadAndOffset() {
+        TraceSnapshot snapshot = trace("timeline");
+        String caller = Thread.currentThread().getName();
+        Assert.assertEquals(caller, snapshot.getRoot().getThreadName());
+        for (TraceSpan span : snapshot.getSpans()) {
+            Assert.assertNotNull(span.getThreadName());
+            if (span.isAsync() && !span.isCallerRuns()) {
+                Assert.assertNotEquals(caller, span.getThreadName());
+                Assert.assertTrue(span.getStartOffset() > 0);
+            }
+        }
+    }
+
+    @Test
+    public void testOutputPerTrace() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        ChromeTraceOutput output = new ChromeTraceOutput(dir);
+        TraceSnapshot snapshot = trace("chrome/trace");
+        output.output(snapshot);
+
+        File[] files = dir.toFile().listFiles();
+        Assert.assertEquals(1, files.length);
+        Assert.assertTrue(files[0].getName(), files[0].getName().startsWith("chrome_trace-"));
+        String json = new String(Files.readAllBytes(files[0].toPath()), StandardCharsets.UTF_8);
+        Assert.assertTrue(json, json.startsWith("[\n{\"name\":\"process_name\",\"ph\":\"M\""));
+        Assert.assertTrue(json, json.trim().endsWith("]"));
+        Assert.assertTrue(json, json.contains("\"name\":\"rpc-1(异步)\",\"cat\":\"async\",\"ph\":\"X\""));
+        Assert.assertTrue(json, json.contains("\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":"
+                + Thread.currentThread().getId() + ",\"args\":{\"name\":\"" + Thread.currentThread().getName() + "\"}"));
+        Assert.assertTrue(json, json.contains("\"cat\":\"queue\",\"ph\":\"b\""));
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        ChromeTraceOutput output = new ChromeTraceOutput(dir, 2);
+        for (int i = 0; i < 3; i++) {
+            output.output(trace("batch-" + i));
+        }
+        // 第二个文件还没有写满，结尾的 ] 在关闭时补上
+        output.close();
+        File[] files = dir.toFile().listFiles();
+        Arrays.sort(files);
+        Assert.assertEquals(2, files.length);
+        String first = new String(Files.readAllBytes(files[0].toPath()), StandardCharsets.UTF_8);
+        Assert.assertTrue(first.contains("batch-0") && first.contains("batch-1") && !first.contains("batch-2"));
+        Assert.assertTrue(first.contains("\"pid\":2"));
+        String second = new String(Files.readAllBytes(files[1].toPath()), StandardCharsets.UTF_8);
+        Assert.assertTrue(second, second.contains("batch-2") && second.trim().endsWith("]"));
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
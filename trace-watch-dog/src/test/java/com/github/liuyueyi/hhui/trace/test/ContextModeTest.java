@@ -0,0 +1,100 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.async.AsyncUtil;
+import com.github.liuyueyi.hhui.components.trace.context.ContextMode;
+import com.github.liuyueyi.hhui.components.trace.context.ScopedValueTraceContext;
+import com.github.liuyueyi.hhui.components.trace.context.ThreadLocalTraceContext;
+import com.github.liuyueyi.hhui.components.trace.context.TtlTraceContext;
+import com.github.liuyueyi.hhui.components.trace.mdc.MdcUtil;
+import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.recoder.ITraceRecoder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 记录器的上下文传递方式
+ *
+ * @author YiHui
+ * @date 2024/9/15
+ */
+public class ContextModeTest {
+
+    @After
+    public void tearDown() {
+        TraceWatch.setContextMode(ContextMode.TTL);
+    }
+
+    @Test
+    public void testTtl() {
+        Assert.assertSame(TtlTraceContext.INSTANCE, TraceWatch.getContext());
+        verify("ttl");
+    }
+
+    @Test
+    public void testThreadLocal() {
+        TraceWatch.setContextMode(ContextMode.THREAD_LOCAL);
+        Assert.assertSame(ThreadLocalTraceContext.INSTANCE, TraceWatch.getContext());
+        verify("thread-local");
+    }
+
+    @Test
+    public void testScopedValue() {
+        TraceWatch.setContextMode(ContextMode.SCOPED_VALUE);
+        Assert.assertEquals(ContextMode.SCOPED_VALUE, TraceWatch.getContextMode());
+        if (!ScopedValueTraceContext.isSupported()) {
+            // 不支持时退化为 ThreadLocal
+            Assert.assertSame(ThreadLocalTraceContext.INSTANCE, TraceWatch.getContext());
+        }
+        verify("scoped-value");
+    }
+
+    @Test
+    public void testScopedValueNestedTrace() {
+        TraceWatch.setContextMode(ContextMode.SCOPED_VALUE);
+        try (ITraceRecoder recoder = TraceWatch.startTrace("outer", false)) {
+            recoder.async(() -> {
+                // 异步任务中开启新的trace，结束之后不影响请求线程
+                try (ITraceRecoder inner = TraceWatch.startTrace("inner", false)) {
+                    Assert.assertSame(inner, TraceWatch.getRecoder());
+                }
+                Assert.assertNull(TraceWatch.getRecoder());
+            }, "nested").join();
+            Assert.assertSame(recoder, TraceWatch.getRecoder());
+        }
+        Assert.assertNull(TraceWatch.getRecoder());
+    }
+
+    private void verify(String name) {
+        try (ITraceRecoder recoder = TraceWatch.startTrace(name, false)) {
+            Assert.assertSame(recoder, TraceWatch.getRecoder());
+            String traceId = MdcUtil.fetchGlobalMsgIdForTraceRecoder();
+            List<CompletableFuture<String>> list = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                list.add(recoder.async(() -> {
+                    Assert.assertSame(recoder, TraceWatch.getRecoder());
+                    // 异步任务中再提交的任务，同样可以拿到记录器
+                    return TraceWatch.getRecoder().async(() -> {
+                        Assert.assertSame(recoder, TraceWatch.getRecoder());
+                        return MdcUtil.fetchGlobalMsgIdForTraceRecoder();
+                    }, "inner").join();
+                }, "outer-" + i));
+            }
+            recoder.allExecuted();
+            for (CompletableFuture<String> future : list) {
+                Assert.assertEquals(traceId, future.join());
+            }
+            Assert.assertEquals(41, ((DefaultTraceRecoder) recoder).snapshot().getSpans().size());
+        }
+        Assert.assertNull(TraceWatch.getRecoder());
+        // 任务执行完毕之后，线程池中的线程上不再残留记录器
+        for (int i = 0; i < 20; i++) {
+            Assert.assertNull(CompletableFuture.supplyAsync(TraceWatch::getRecoder, AsyncUtil.executorService).join());
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.output.LogOutput;
+import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.span.CriticalPath;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSpan;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 关键路径与松弛时间
+ *
+ * @author YiHui
+ * @date 2024/9/14
+ */
+public class CriticalPathTest {
+
+    private static TraceSpan span(int id, int parent, String name, boolean async, long start, long end) {
+        return new TraceSpan(id, parent, name, async, start, end - start);
+    }
+
+    private static List<String> names(CriticalPath path) {
+        return path.getPath().stream().map(TraceSpan::getName).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testFanOut() {
+        List<TraceSpan> spans = new ArrayList<>();
+        spans.add(span(0, -1, "root", false, 0, 100));
+        spans.add(span(1, 0, "a", false, 0, 10));
+        spans.add(span(2, 0, "b", true, 10, 100));
+        spans.add(span(3, 0, "c", true, 10, 40));
+        spans.add(span(4, 0, "d", false, 10, 30));
+        spans.add(span(5, 2, "b1", false, 20, 90));
+        spans.add(span(6, 3, "c1", false, 15, 35));
+        TraceSnapshot snapshot = TraceSnapshot.of("root", spans).markJoinStart(30);
+        Map<String, TraceSpan> index = snapshot.getSpans().stream().collect(Collectors.toMap(TraceSpan::getName, Function.identity()));
+
+        CriticalPath path = snapshot.getCriticalPath();
+        Assert.assertEquals(Arrays.asList("a", "b", "b1"), names(path));
+        Assert.assertEquals(0, path.getSlack(index.get("b")));
+        Assert.assertEquals(0, path.getSlack(index.get("b1")));
+        // 异步任务: trace结束 - 任务结束
+        Assert.assertEquals(60, path.getSlack(index.get("c")));
+        // 异步任务中的同步任务，与父任务相同
+        Assert.assertEquals(60, path.getSlack(index.get("c1")));
+        // 提交线程上的同步任务: 在 allExecuted 中空等的时间
+        Assert.assertEquals(70, path.getSlack(index.get("d")));
+    }
+
+    @Test
+    public void testAsyncOutlivesParent() {
+        List<TraceSpan> spans = new ArrayList<>();
+        spans.add(span(0, -1, "root", false, 0, 100));
+        spans.add(span(1, 0, "p", false, 0, 20));
+        // 在同步任务p中提交，p并没有等待它结束
+        spans.add(span(2, 1, "q", true, 5, 100));
+        spans.add(span(3, 1, "r", true, 6, 50));
+        TraceSnapshot snapshot = TraceSnapshot.of("root", spans).markJoinStart(20);
+
+        CriticalPath path = snapshot.getCriticalPath();
+        Assert.assertEquals(Arrays.asList("p", "q"), names(path));
+        Assert.assertEquals(50, path.getSlack(snapshot.getSpans().get(3)));
+    }
+
+    @Test
+    public void testQueuedAsync() {
+        List<TraceSpan> spans = new ArrayList<>();
+        spans.add(span(0, -1, "root", false, 0, 100));
+        spans.add(span(1, 0, "a", false, 0, 10));
+        // 10 时提交，在线程池中排队到 40 才开始执行
+        spans.add(new TraceSpan(2, 0, "b", true, 40, 60, false, 30));
+        // 排队期间提交线程上执行的同步任务，并不是b在等待的对象
+        spans.add(span(3, 0, "c", false, 10, 40));
+        TraceSnapshot snapshot = TraceSnapshot.of("root", spans).markJoinStart(40);
+
+        CriticalPath path = snapshot.getCriticalPath();
+        Assert.assertEquals(Arrays.asList("a", "b"), names(path));
+        Assert.assertEquals(60, path.getSlack(snapshot.getSpans().get(3)));
+    }
+
+    @Test
+    public void testLog() {
+        DefaultTraceRecoder recoder = (DefaultTraceRecoder) TraceWatch.startTrace("critical", false);
+        try {
+            CountDownLatch fastDone = new CountDownLatch(1);
+            recoder.async(() -> {
+                try {
+                    fastDone.await(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                sleep(30);
+            }, "slow");
+            recoder.async(() -> {
+                sleep(1);
+                fastDone.countDown();
+            }, "fast");
+            recoder.sync(() -> sleep(2), "local");
+            TraceSnapshot snapshot = recoder.snapshot();
+            LogOutput.logPrintTree(snapshot);
+            LogOutput.logPrint(snapshot);
+            CriticalPath path = snapshot.getCriticalPath();
+            Assert.assertEquals(Arrays.asList("slow(异步)"), names(path));
+            TraceSpan fast = snapshot.getSpans().stream().filter(s -> s.getName().startsWith("fast")).findFirst().get();
+            Assert.assertTrue(path.getSlack(fast) > 20_000_000);
+        } finally {
+            recoder.close();
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.async.AsyncUtil;
+import com.github.liuyueyi.hhui.components.trace.async.ExecutorMetrics;
+import com.github.liuyueyi.hhui.components.trace.async.InstrumentedThreadPoolExecutor;
+import com.github.liuyueyi.hhui.components.trace.output.LogOutput;
+import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.recoder.ITraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 线程池运行指标
+ *
+ * @author YiHui
+ * @date 2024/9/11
+ */
+public class ExecutorMetricsTest {
+
+    @Test
+    public void testCallerRuns() throws InterruptedException {
+        InstrumentedThreadPoolExecutor pool = new InstrumentedThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<>(), Executors.defaultThreadFactory(), new ThreadPoolExecutor.CallerRunsPolicy());
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            TraceSnapshot snapshot;
+            try (ITraceRecoder recoder = TraceWatch.startTrace(pool, "saturated", false)) {
+                recoder.async(() -> {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, "block");
+                // 唯一的线程被占用，第二个任务在当前线程中执行
+                recoder.async(() -> latch.countDown(), "degraded");
+                snapshot = ((DefaultTraceRecoder) recoder).snapshot();
+            }
+            LogOutput.logPrint(snapshot);
+            Assert.assertEquals(1, snapshot.getCallerRunsCount());
+            Assert.assertEquals(1, snapshot.getTaskStats().get("degraded(异步)").getCallerRunsCount());
+            Assert.assertEquals(0, snapshot.getTaskStats().get("block(异步)").getCallerRunsCount());
+
+            ExecutorMetrics metrics = AsyncUtil.getExecutorMetrics(pool);
+            // future 在 afterExecute 之前完成，稍等线程池的计数更新
+            for (int i = 0; i < 100 && metrics.getCompletedCount() == 0; i++) {
+                Thread.sleep(5);
+                metrics = pool.getMetrics();
+            }
+            Assert.assertEquals(2, metrics.getSubmittedCount());
+            Assert.assertEquals(1, metrics.getRejectedCount());
+            Assert.assertEquals(1, metrics.getCallerRunsCount());
+            Assert.assertEquals(1, metrics.getPoolSize());
+            Assert.assertEquals(1, metrics.getLargestPoolSize());
+            Assert.assertEquals(1, metrics.getCompletedCount());
+            Assert.assertEquals(0, metrics.getActiveCount());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testDefaultPool() {
+        ExecutorMetrics before = AsyncUtil.getExecutorMetrics();
+        Assert.assertNotNull(before);
+        try (ITraceRecoder recoder = TraceWatch.startTrace("metrics", false)) {
+            recoder.async(() -> {
+            }, "task");
+        }
+        Assert.assertTrue(AsyncUtil.getExecutorMetrics().getSubmittedCount() > before.getSubmittedCount());
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        Assert.assertNull(AsyncUtil.getExecutorMetrics(single));
+        single.shutdown();
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import com.github.liuyueyi.hhui.components.trace.async.AsyncUtil;
+import com.github.liuyueyi.hhui.components.trace.clock.FakeTraceClock;
+import com.github.liuyueyi.hhui.components.trace.output.FlameGraphOutput;
+import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 火焰图 collapsed-stack 输出
+ *
+ * @author YiHui
+ * @date 2024/9/14
+ */
+public class FlameGraphOutputTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private void trace(FlameGraphOutput output) {
+        FakeTraceClock clock = new FakeTraceClock();
+        DefaultTraceRecoder recoder = new DefaultTraceRecoder(AsyncUtil.executorService, "Index#entry", false, clock);
+        recoder.sync(() -> {
+            clock.advance(1, TimeUnit.MILLISECONDS);
+            recoder.sync(() -> clock.advance(2, TimeUnit.MILLISECONDS), "ServiceB#rpc");
+        }, "ServiceA#query");
+        recoder.sync(() -> clock.advance(4, TimeUnit.MILLISECONDS), "ServiceC#a;b");
+        output.output(recoder.snapshot());
+        recoder.close();
+    }
+
+    @Test
+    public void testAccumulate() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("flame/trace.collapsed");
+        FlameGraphOutput output = new FlameGraphOutput(file);
+        trace(output);
+        trace(output);
+
+        Map<String, Long> stacks = output.getStacks();
+        Assert.assertEquals(3, stacks.size());
+        Assert.assertEquals(Long.valueOf(2000), stacks.get("Index#entry;ServiceA#query"));
+        Assert.assertEquals(Long.valueOf(4000), stacks.get("Index#entry;ServiceA#query;ServiceB#rpc"));
+        Assert.assertEquals(Long.valueOf(8000), stacks.get("Index#entry;ServiceC#a,b"));
+
+        output.close();
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        Assert.assertEquals(Arrays.asList(
+                "Index#entry;ServiceA#query 2000",
+                "Index#entry;ServiceA#query;ServiceB#rpc 4000",
+                "Index#entry;ServiceC#a,b 8000"), lines);
+    }
+
+    @Test
+    public void testMaxStacks() {
+        FlameGraphOutput output = new FlameGraphOutput(folder.getRoot().toPath().resolve("max.collapsed"), null, 2);
+        trace(output);
+        Map<String, Long> stacks = output.getStacks();
+        Assert.assertEquals(3, stacks.size());
+        Assert.assertEquals(Long.valueOf(4000), stacks.get("Index#entry;[other]"));
+    }
+
+    @Test
+    public void testSubMicrosAccumulate() {
+        // 单次不足一微秒的耗时，累加之后再换算，不会被逐次截断为0
+        FlameGraphOutput output = new FlameGraphOutput(folder.getRoot().toPath().resolve("short.collapsed"));
+        Map<String, Long> cost = new HashMap<>();
+        cost.put("short", 600L);
+        cost.put("trace", 900L);
+        for (int i = 0; i < 2000; i++) {
+            output.outputNanos(cost, "trace");
+        }
+        Map<String, Long> stacks = output.getStacks();
+        Assert.assertEquals(Long.valueOf(1200), stacks.get("trace;short"));
+        Assert.assertEquals(Long.valueOf(600), stacks.get("trace"));
+    }
+}
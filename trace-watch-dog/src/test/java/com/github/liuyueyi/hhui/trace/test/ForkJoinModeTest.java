@@ -0,0 +1,73 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.async.AsyncUtil;
+import com.github.liuyueyi.hhui.components.trace.async.ExecutorMode;
+import com.github.liuyueyi.hhui.components.trace.async.TraceExecutor;
+import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.recoder.ITraceRecoder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * ForkJoinPool 执行模式
+ *
+ * @author YiHui
+ * @date 2024/9/11
+ */
+public class ForkJoinModeTest {
+
+    /**
+     * 递归的异步调用，每一层都在工作线程中等待下一层的结果
+     */
+    private static int fanOut(ITraceRecoder recoder, int depth) {
+        if (depth == 0) {
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return 1;
+        }
+        List<CompletableFuture<Integer>> list = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            list.add(recoder.async(() -> fanOut(recoder, depth - 1), "level-" + depth));
+        }
+        int sum = 0;
+        for (CompletableFuture<Integer> future : list) {
+            sum += future.join();
+        }
+        return sum;
+    }
+
+    @Test(timeout = 10_000)
+    public void testRecursiveFanOut() {
+        // 只有两个工作线程，没有补偿时，所有工作线程都会阻塞在 join 上
+        ExecutorService pool = AsyncUtil.initForkJoinPool(2);
+        try (ITraceRecoder recoder = TraceWatch.startTrace(TraceExecutor.of(pool), "fork-join", false)) {
+            Assert.assertEquals(64, fanOut(recoder, 3));
+            Assert.assertEquals(1 + 4 + 16 + 64, ((DefaultTraceRecoder) recoder).snapshot().getSpans().size());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testExecutorMode() {
+        Assert.assertSame(AsyncUtil.forkJoinTraceExecutor(), AsyncUtil.traceExecutor(ExecutorMode.FORK_JOIN));
+        Assert.assertSame(AsyncUtil.traceExecutor, AsyncUtil.traceExecutor(ExecutorMode.POOL));
+        TraceWatch.setExecutorMode(ExecutorMode.FORK_JOIN);
+        try (ITraceRecoder recoder = TraceWatch.startTrace("fork-join-default", false)) {
+            String name = recoder.async(() -> Thread.currentThread().getName(), "name").join();
+            Assert.assertTrue(name, name.startsWith("trace-watch-dog-fj-"));
+        } finally {
+            TraceWatch.setExecutorMode(null);
+        }
+        Assert.assertEquals(ExecutorMode.POOL, TraceWatch.getExecutorMode());
+    }
+}
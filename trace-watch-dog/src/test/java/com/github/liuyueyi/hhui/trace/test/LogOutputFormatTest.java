@@ -0,0 +1,132 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.github.liuyueyi.hhui.components.trace.clock.FakeTraceClock;
+import com.github.liuyueyi.hhui.components.trace.output.LogOutput;
+import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.async.AsyncUtil;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.text.NumberFormat;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 日志格式化：复用缓冲 + 整数计算百分比，输出内容与 NumberFormat 保持一致
+ *
+ * @author YiHui
+ * @date 2024/9/13
+ */
+public class LogOutputFormatTest {
+    private ListAppender<ILoggingEvent> appender;
+
+    @Before
+    public void setUp() {
+        appender = new ListAppender<>();
+        appender.start();
+        ((Logger) LoggerFactory.getLogger(DefaultTraceRecoder.class)).addAppender(appender);
+    }
+
+    @After
+    public void reset() {
+        ((Logger) LoggerFactory.getLogger(DefaultTraceRecoder.class)).detachAppender(appender);
+    }
+
+    /**
+     * 格式化之前的实现，作为对照
+     */
+    private static String expect(Map<String, Long> cost, String traceName) {
+        StringBuilder sb = new StringBuilder();
+        sb.append('\n');
+        long totalCost = cost.get(traceName);
+        sb.append("TraceWatch '").append(traceName).append("': running time = ").append(totalCost).append(" ms");
+        sb.append('\n');
+        sb.append("---------------------------------------------\n");
+        sb.append("ms         %     Task name\n");
+        sb.append("---------------------------------------------\n");
+        NumberFormat pf = NumberFormat.getPercentInstance();
+        pf.setMinimumIntegerDigits(2);
+        pf.setMinimumFractionDigits(2);
+        pf.setGroupingUsed(false);
+        for (Map.Entry<String, Long> entry : cost.entrySet()) {
+            if (entry.getKey().equals(traceName)) {
+                continue;
+            }
+            sb.append(entry.getValue()).append("\t\t");
+            sb.append(pf.format(totalCost == 0 ? 0 : entry.getValue() / (double) totalCost)).append("\t\t");
+            sb.append(entry.getKey());
+            sb.append("\n");
+        }
+        return "\n---------------------\n" + sb + "\n--------------------\n";
+    }
+
+    @Test
+    public void testIdenticalText() {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            FakeTraceClock clock = new FakeTraceClock();
+            DefaultTraceRecoder recoder = new DefaultTraceRecoder(AsyncUtil.executorService, "format-" + round, true, clock);
+            int tasks = 1 + random.nextInt(20);
+            for (int i = 0; i < tasks; i++) {
+                long ms = random.nextInt(round % 2 == 0 ? 100 : 100_000);
+                recoder.sync(() -> clock.advance(ms, TimeUnit.MILLISECONDS), "task-" + i);
+            }
+            clock.advance(random.nextInt(50), TimeUnit.MILLISECONDS);
+            Map<String, Long> cost = recoder.prettyPrint();
+
+            appender.list.clear();
+            LogOutput.logPrint(cost, recoder.snapshot().getTraceName());
+            Assert.assertEquals(1, appender.list.size());
+            Assert.assertEquals(expect(cost, "format-" + round), appender.list.get(0).getFormattedMessage());
+        }
+    }
+
+    @Test
+    public void testSnapshotIdenticalText() {
+        // 快照直接基于 TaskStat 输出，与基于 getCost() 的输出逐字节一致
+        Random random = new Random(7);
+        for (int round = 0; round < 50; round++) {
+            FakeTraceClock clock = new FakeTraceClock();
+            DefaultTraceRecoder recoder = new DefaultTraceRecoder(AsyncUtil.executorService, "snapshot-" + round, false, clock);
+            int tasks = 1 + random.nextInt(20);
+            for (int i = 0; i < tasks; i++) {
+                long us = random.nextInt(100_000);
+                recoder.sync(() -> clock.advance(us, TimeUnit.MICROSECONDS), "task-" + i);
+            }
+            clock.advance(random.nextInt(50), TimeUnit.MILLISECONDS);
+            TraceSnapshot snapshot = recoder.snapshot();
+
+            appender.list.clear();
+            LogOutput.logPrint(snapshot);
+            LogOutput.logPrintNanos(snapshot.getCost(), snapshot.getTraceName());
+            Assert.assertEquals(2, appender.list.size());
+            Assert.assertEquals(appender.list.get(1).getFormattedMessage(), appender.list.get(0).getFormattedMessage());
+        }
+    }
+
+    @Test
+    public void testPercentEdge() {
+        FakeTraceClock clock = new FakeTraceClock();
+        DefaultTraceRecoder recoder = new DefaultTraceRecoder(AsyncUtil.executorService, "edge", false, clock);
+        // 恰好处于舍入的中间值(1/20000)时，退回 NumberFormat
+        recoder.sync(() -> clock.advance(1, TimeUnit.NANOSECONDS), "tie");
+        clock.advance(19999, TimeUnit.NANOSECONDS);
+        TraceSnapshot snapshot = recoder.snapshot();
+        appender.list.clear();
+        LogOutput.logPrintTree(snapshot);
+        NumberFormat pf = NumberFormat.getPercentInstance();
+        pf.setMinimumIntegerDigits(2);
+        pf.setMinimumFractionDigits(2);
+        pf.setGroupingUsed(false);
+        String message = appender.list.get(0).getFormattedMessage();
+        Assert.assertTrue(message, message.contains("\t\t" + pf.format(1 / 20000d) + "\t\t"));
+    }
+}
@@ -0,0 +1,112 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.github.liuyueyi.hhui.components.trace.output.LogOutput;
+import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.span.ParallelismReport;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSpan;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 并行效率
+ *
+ * @author YiHui
+ * @date 2024/9/14
+ */
+public class ParallelismReportTest {
+    private static final long MS = 1_000_000;
+
+    private static TraceSpan span(int id, int parent, String name, boolean async, long start, long end) {
+        return new TraceSpan(id, parent, name, async, start * MS, (end - start) * MS);
+    }
+
+    @Test
+    public void testFanOut() {
+        List<TraceSpan> spans = new ArrayList<>();
+        spans.add(span(0, -1, "root", false, 0, 100));
+        spans.add(span(1, 0, "a", false, 0, 10));
+        spans.add(span(2, 0, "b", true, 10, 100));
+        spans.add(span(3, 0, "c", true, 10, 40));
+        spans.add(span(4, 0, "d", false, 10, 30));
+        // 退化为在提交线程中执行的异步任务，不重复计算工作时间
+        spans.add(new TraceSpan(5, 0, "e", true, 30 * MS, 0, false, 2 * MS).markCallerRuns());
+        TraceSnapshot snapshot = TraceSnapshot.of("root", spans).markJoinStart(30 * MS);
+
+        ParallelismReport report = snapshot.getParallelism();
+        Assert.assertEquals(100 * MS, report.getWallTime());
+        Assert.assertEquals(30 * MS, report.getSyncTime());
+        Assert.assertEquals(120 * MS, report.getAsyncTime());
+        Assert.assertEquals(150 * MS, report.getTaskTime());
+        Assert.assertEquals(1.5, report.getConcurrency(), 0.0001);
+        Assert.assertEquals(70 * MS, report.getBlockedTime());
+        Assert.assertEquals(90 * MS, report.getAsyncWallTime());
+        Assert.assertEquals(20 * MS, report.getOverlapTime());
+        Assert.assertEquals(2 * MS, report.getQueueTime());
+
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        Logger logger = (Logger) LoggerFactory.getLogger(DefaultTraceRecoder.class);
+        logger.addAppender(appender);
+        try {
+            LogOutput.logPrint(snapshot);
+        } finally {
+            logger.detachAppender(appender);
+        }
+        String log = appender.list.get(0).getFormattedMessage();
+        Assert.assertTrue(log, log.contains("parallelism: wall=100.000 ms, work=150.000 ms, concurrency=1.50, blocked=70.000 ms, "
+                + "sync=30.000 ms, async=120.000 ms(overlap=20.000 ms), queued=2.000 ms\n"));
+    }
+
+    @Test
+    public void testSerialAsync() {
+        // 提交之后立即等待，异步没有带来并行
+        List<TraceSpan> spans = new ArrayList<>();
+        spans.add(span(0, -1, "root", false, 0, 50));
+        spans.add(span(1, 0, "a", true, 1, 50));
+        TraceSnapshot snapshot = TraceSnapshot.of("root", spans);
+
+        ParallelismReport report = snapshot.getParallelism();
+        Assert.assertEquals(0, report.getOverlapTime());
+        Assert.assertEquals(50 * MS, report.getBlockedTime());
+        Assert.assertEquals(0.98, report.getConcurrency(), 0.0001);
+    }
+
+    @Test
+    public void testNestedAsync() {
+        // 异步任务中等待自己提交的异步任务，只有一个线程在工作
+        List<TraceSpan> spans = new ArrayList<>();
+        spans.add(span(0, -1, "root", false, 0, 100));
+        spans.add(span(1, 0, "p", true, 0, 100));
+        spans.add(span(2, 1, "c", true, 10, 90));
+        ParallelismReport report = TraceSnapshot.of("root", spans).markJoinStart(0).getParallelism();
+        Assert.assertEquals(100 * MS, report.getAsyncTime());
+        Assert.assertEquals(1.0, report.getConcurrency(), 0.0001);
+    }
+
+    @Test
+    public void testRecursiveFanOut() {
+        List<TraceSpan> spans = new ArrayList<>();
+        spans.add(span(0, -1, "root", false, 0, 100));
+        spans.add(span(1, 0, "p", true, 0, 100));
+        spans.add(span(2, 1, "c1", true, 10, 90));
+        spans.add(span(3, 1, "c2", true, 10, 50));
+        // 通过同步任务提交的孙任务，父任务依然是 c1 所在的线程
+        spans.add(span(4, 2, "sync", false, 15, 85));
+        spans.add(span(5, 4, "g", true, 20, 80));
+        ParallelismReport report = TraceSnapshot.of("root", spans).markJoinStart(0).getParallelism();
+        // p: 100 - 80, c1: 80 - 60, c2: 40, g: 60
+        Assert.assertEquals(140 * MS, report.getAsyncTime());
+        Assert.assertEquals(140 * MS, report.getTaskTime());
+        Assert.assertEquals(1.4, report.getConcurrency(), 0.0001);
+        Assert.assertEquals(100 * MS, report.getAsyncWallTime());
+        Assert.assertEquals(100 * MS, report.getBlockedTime());
+    }
+}
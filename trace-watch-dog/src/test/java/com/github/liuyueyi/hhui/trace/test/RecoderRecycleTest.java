@@ -0,0 +1,64 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.async.AsyncUtil;
+import com.github.liuyueyi.hhui.components.trace.async.TraceExecutor;
+import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.recoder.ITraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * 线程池句柄复用 + 记录器回收
+ *
+ * @author YiHui
+ * @date 2024/9/8
+ */
+public class RecoderRecycleTest {
+
+    @Test
+    public void testExecutorNotRewrapped() {
+        TraceExecutor executor = TraceExecutor.of(AsyncUtil.executorService);
+        // 默认线程池已经是 TTL 包装过的，不会再包一层
+        Assert.assertSame(AsyncUtil.executorService, executor.getExecutorService());
+    }
+
+    @Test
+    public void testRecycle() {
+        TraceWatch.enableRecoderRecycle(true);
+        try {
+            ITraceRecoder first;
+            try (ITraceRecoder recoder = TraceWatch.startTrace("recycle-1", false)) {
+                first = recoder;
+                for (int i = 0; i < 100; i++) {
+                    recoder.async(() -> {
+                    }, "task-" + i);
+                }
+            }
+            Assert.assertNull(TraceWatch.getRecoder());
+
+            try (ITraceRecoder recoder = TraceWatch.startTrace("recycle-2", false)) {
+                Assert.assertSame(first, recoder);
+                recoder.sync(() -> {
+                }, "only");
+                TraceSnapshot snapshot = ((DefaultTraceRecoder) recoder).snapshot();
+                Assert.assertEquals("recycle-2", snapshot.getTraceName());
+                Assert.assertEquals(2, snapshot.getSpans().size());
+                Map<String, Long> cost = snapshot.getCost();
+                Assert.assertTrue(cost.containsKey("only"));
+                Assert.assertFalse(cost.containsKey("task-0(异步)"));
+            }
+        } finally {
+            TraceWatch.enableRecoderRecycle(false);
+        }
+
+        try (ITraceRecoder recoder = TraceWatch.startTrace("no-recycle", false)) {
+            try (ITraceRecoder next = TraceWatch.startTrace("no-recycle", false)) {
+                Assert.assertNotSame(recoder, next);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.recoder.ITraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.recoder.ScopedTraceRecoder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 结构化并发的记录器
+ *
+ * @author YiHui
+ * @date 2024/9/10
+ */
+public class ScopedTraceTest {
+
+    @Test
+    public void testCancelOnFailure() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        ScopedTraceRecoder recoder = (ScopedTraceRecoder) TraceWatch.startScopedTrace("scope-fail", false);
+        IllegalStateException error = new IllegalStateException("boom");
+        try {
+            CompletableFuture<Void> slow = recoder.async(() -> {
+                started.countDown();
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }, "slow");
+            // 还在排队的任务被取消之后不会执行，也就不会被中断，因此等它开始执行之后再失败
+            Assert.assertTrue(started.await(1, TimeUnit.SECONDS));
+            recoder.async(() -> {
+                throw error;
+            }, "fail");
+            try {
+                recoder.allExecuted();
+                Assert.fail();
+            } catch (CompletionException e) {
+                Assert.assertSame(error, e.getCause());
+            }
+            Assert.assertTrue(slow.isCompletedExceptionally());
+            Assert.assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+            Assert.assertTrue(recoder.isShutdown());
+            Assert.assertSame(error, recoder.getFailure());
+
+            // 作用域关闭之后，新提交的任务不会再执行
+            AtomicBoolean run = new AtomicBoolean();
+            CompletableFuture<Void> late = recoder.async(() -> run.set(true), "late");
+            Assert.assertTrue(late.isCancelled());
+            Assert.assertFalse(run.get());
+        } finally {
+            recoder.close();
+        }
+        Assert.assertNull(TraceWatch.getRecoder());
+    }
+
+    @Test
+    public void testCancelOnTimeout() throws InterruptedException {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        try (ITraceRecoder recoder = TraceWatch.startScopedTrace("scope-timeout", false)) {
+            recoder.async(() -> {
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }, "hung");
+            recoder.allExecuted(Duration.ofMillis(20));
+        }
+        // trace结束之后，不会遗留仍在执行的任务
+        Assert.assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCloseWaitsForCancelledTasks() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean finished = new AtomicBoolean();
+        ScopedTraceRecoder recoder = (ScopedTraceRecoder) TraceWatch.startScopedTrace("scope-stubborn", false);
+        try {
+            recoder.async(() -> {
+                started.countDown();
+                // 忽略中断，继续执行一段时间
+                long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+                while (System.nanoTime() < end) {
+                    Thread.interrupted();
+                }
+                finished.set(true);
+            }, "stubborn");
+            Assert.assertTrue(started.await(1, TimeUnit.SECONDS));
+            recoder.allExecuted(Duration.ofMillis(1));
+        } finally {
+            recoder.close();
+        }
+        // close() 等待被取消的任务真正退出
+        Assert.assertTrue(finished.get());
+        Assert.assertEquals(0, recoder.getRunningCount());
+    }
+
+    @Test
+    public void testNormal() {
+        try (ITraceRecoder recoder = TraceWatch.startScopedTrace("scope", false)) {
+            CompletableFuture<Integer> a = recoder.async(() -> 1, "a");
+            CompletableFuture<Integer> b = recoder.async(() -> recoder.sync(() -> 2, "b-inner"), "b");
+            recoder.allExecuted();
+            Assert.assertEquals(3, a.join() + b.join());
+            Assert.assertEquals(4, ((ScopedTraceRecoder) recoder).snapshot().getSpans().size());
+        }
+    }
+}
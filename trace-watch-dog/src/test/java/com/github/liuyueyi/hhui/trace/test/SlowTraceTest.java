@@ -0,0 +1,102 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.clock.FakeTraceClock;
+import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.recoder.ITraceRecoder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * 只输出慢trace
+ *
+ * @author YiHui
+ * @date 2024/9/13
+ */
+public class SlowTraceTest {
+    private FakeTraceClock clock;
+    private ListAppender<ILoggingEvent> appender;
+
+    @Before
+    public void setUp() {
+        clock = new FakeTraceClock();
+        TraceWatch.registerClock(clock);
+        appender = new ListAppender<>();
+        appender.start();
+        ((Logger) LoggerFactory.getLogger(DefaultTraceRecoder.class)).addAppender(appender);
+    }
+
+    @After
+    public void reset() {
+        ((Logger) LoggerFactory.getLogger(DefaultTraceRecoder.class)).detachAppender(appender);
+        TraceWatch.registerClock(null);
+        TraceWatch.setSlowThreshold(null);
+        TraceWatch.setTaskBudget("rpc", null);
+    }
+
+    /**
+     * @return 输出了日志的trace
+     */
+    private List<String> logged() {
+        return appender.list.stream().map(ILoggingEvent::getFormattedMessage)
+                .filter(s -> s.contains("TraceWatch '"))
+                .map(s -> s.substring(s.indexOf('\'') + 1, s.indexOf('\'', s.indexOf('\'') + 1)))
+                .collect(Collectors.toList());
+    }
+
+    private DefaultTraceRecoder trace(String name, long totalMs, long rpcMs) {
+        DefaultTraceRecoder recoder = (DefaultTraceRecoder) TraceWatch.startTrace(name);
+        recoder.sync(() -> clock.advance(rpcMs, TimeUnit.MILLISECONDS), "rpc");
+        clock.advance(totalMs - rpcMs, TimeUnit.MILLISECONDS);
+        return recoder;
+    }
+
+    @Test
+    public void testSlowThreshold() {
+        // 未配置时全部输出
+        trace("all", 10, 1).close();
+        TraceWatch.setSlowThreshold(Duration.ofMillis(100));
+        trace("fast", 10, 1).close();
+        trace("slow", 200, 1).close();
+        // 单个trace覆盖全局配置
+        trace("override", 10, 1).setSlowThreshold(Duration.ofMillis(5)).close();
+        Assert.assertEquals(3, logged().size());
+        Assert.assertFalse(logged().contains("fast"));
+    }
+
+    @Test
+    public void testTaskBudget() {
+        TraceWatch.setTaskBudget("rpc", Duration.ofMillis(20));
+        trace("rpc-fast", 200, 10).close();
+        trace("rpc-slow", 30, 25).close();
+        trace("rpc-override", 30, 10).setTaskBudget("rpc", Duration.ofMillis(5)).close();
+
+        // 异步任务的预算不需要带上后缀
+        try (ITraceRecoder recoder = TraceWatch.startTrace("rpc-async")) {
+            recoder.async(() -> clock.advance(30, TimeUnit.MILLISECONDS), "rpc");
+        }
+        Assert.assertEquals(3, logged().size());
+        Assert.assertFalse(logged().contains("rpc-fast"));
+    }
+
+    @Test
+    public void testOtherOutputNotFiltered() {
+        TraceWatch.setSlowThreshold(Duration.ofMillis(100));
+        AtomicInteger count = new AtomicInteger();
+        trace("fast", 10, 1).addOutput((cost, name) -> count.incrementAndGet()).close();
+        Assert.assertEquals(1, count.get());
+        Assert.assertTrue(logged().isEmpty());
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import com.github.liuyueyi.hhui.components.trace.async.AsyncUtil;
+import com.github.liuyueyi.hhui.components.trace.clock.FakeTraceClock;
+import com.github.liuyueyi.hhui.components.trace.output.LogOutput;
+import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.clock.SystemTraceClock;
+import com.github.liuyueyi.hhui.components.trace.span.TaskStat;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSpan;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 嵌套调用的执行树
+ *
+ * @author YiHui
+ * @date 2024/9/3
+ */
+public class SpanTreeTest {
+
+    @Test
+    public void testNestedSync() {
+        FakeTraceClock clock = new FakeTraceClock();
+        DefaultTraceRecoder recoder = new DefaultTraceRecoder(AsyncUtil.executorService, "tree", false, clock);
+        recoder.sync(() -> {
+            clock.advance(1, TimeUnit.MILLISECONDS);
+            recoder.sync(() -> clock.advance(2, TimeUnit.MILLISECONDS), "inner-1");
+            recoder.sync(() -> clock.advance(3, TimeUnit.MILLISECONDS), "inner-2");
+        }, "outer");
+        recoder.sync(() -> clock.advance(4, TimeUnit.MILLISECONDS), "next");
+
+        TraceSnapshot snapshot = recoder.snapshot();
+        LogOutput.logPrintTree(snapshot);
+        TraceSpan root = snapshot.getRoot();
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(10), root.getCost());
+        Assert.assertEquals(0, root.getSelfCost());
+        Assert.assertEquals(2, root.getChildren().size());
+
+        TraceSpan outer = root.getChildren().get(0);
+        Assert.assertEquals("outer", outer.getName());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(6), outer.getCost());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(1), outer.getSelfCost());
+        Assert.assertEquals(2, outer.getChildren().size());
+        TraceSpan inner2 = outer.getChildren().get(1);
+        Assert.assertEquals(outer.getId(), inner2.getParentId());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(3), inner2.getStartOffset());
+
+        TraceSpan next = root.getChildren().get(1);
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(6), next.getStartOffset());
+    }
+
+    @Test
+    public void testAsyncChildOfSync() {
+        DefaultTraceRecoder recoder = new DefaultTraceRecoder(AsyncUtil.executorService, "asyncTree", false);
+        recoder.sync(() -> {
+            recoder.async(() -> recoder.sync(() -> {
+            }, "deep"), "child");
+        }, "parent");
+
+        TraceSnapshot snapshot = recoder.snapshot();
+        LogOutput.logPrintTree(snapshot);
+        TraceSpan parent = snapshot.getRoot().getChildren().get(0);
+        Assert.assertEquals("parent", parent.getName());
+        TraceSpan child = parent.getChildren().get(0);
+        Assert.assertTrue(child.isAsync());
+        Assert.assertEquals("deep", child.getChildren().get(0).getName());
+    }
+
+    @Test
+    public void testLargeFanOut() {
+        DefaultTraceRecoder recoder = new DefaultTraceRecoder(AsyncUtil.executorService, "fanOut", false);
+        for (int i = 0; i < 300; i++) {
+            int index = i;
+            recoder.async(() -> {
+                // 异步任务中继续提交的异步任务，同样需要等待执行完毕
+                recoder.async(() -> {
+                }, "sub-" + index);
+            }, "task-" + i);
+        }
+
+        TraceSnapshot snapshot = recoder.snapshot();
+        Assert.assertEquals(601, snapshot.getSpans().size());
+        Assert.assertEquals(300, snapshot.getRoot().getChildren().size());
+        for (TraceSpan child : snapshot.getRoot().getChildren()) {
+            Assert.assertEquals(1, child.getChildren().size());
+        }
+    }
+
+    @Test
+    public void testQueueCost() {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            DefaultTraceRecoder recoder = new DefaultTraceRecoder(single, "queue", false, SystemTraceClock.INSTANCE);
+            recoder.async(() -> {
+                try {
+                    Thread.sleep(30);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "slow");
+            // 单线程的线程池，第二个任务需要等第一个任务执行完毕
+            recoder.async(() -> {
+            }, "starved");
+
+            TraceSnapshot snapshot = recoder.snapshot();
+            LogOutput.logPrintTree(snapshot);
+            TaskStat starved = snapshot.getTaskStats().get("starved(异步)");
+            Assert.assertTrue(starved.getQueueSum() >= TimeUnit.MILLISECONDS.toNanos(25));
+            Assert.assertTrue(starved.getSum() < TimeUnit.MILLISECONDS.toNanos(25));
+            Assert.assertEquals(0, snapshot.getRoot().getQueueCost());
+        } finally {
+            single.shutdown();
+        }
+    }
+}
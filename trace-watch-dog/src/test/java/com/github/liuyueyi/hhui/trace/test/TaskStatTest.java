@@ -0,0 +1,64 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import com.github.liuyueyi.hhui.components.trace.async.AsyncUtil;
+import com.github.liuyueyi.hhui.components.trace.clock.FakeTraceClock;
+import com.github.liuyueyi.hhui.components.trace.output.LogOutput;
+import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.span.TaskStat;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 同名任务的聚合统计
+ *
+ * @author YiHui
+ * @date 2024/9/6
+ */
+public class TaskStatTest {
+
+    @Test
+    public void testLoopAggregate() {
+        FakeTraceClock clock = new FakeTraceClock();
+        DefaultTraceRecoder recoder = new DefaultTraceRecoder(AsyncUtil.executorService, "loop", false, clock);
+        for (int i = 1; i <= 4; i++) {
+            int cost = i;
+            recoder.sync(() -> clock.advance(cost, TimeUnit.MILLISECONDS), "loadItem");
+        }
+        recoder.sync(() -> clock.advance(1, TimeUnit.MILLISECONDS), "other");
+
+        TraceSnapshot snapshot = recoder.snapshot();
+        LogOutput.logPrint(snapshot);
+        TaskStat stat = snapshot.getTaskStats().get("loadItem");
+        Assert.assertEquals(4, stat.getCount());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(10), stat.getSum());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(1), stat.getMin());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(4), stat.getMax());
+
+        // 兼容的耗时分布中，是累计耗时，而不是最后一次
+        Map<String, Long> millis = recoder.prettyPrint();
+        Assert.assertEquals(Long.valueOf(10L), millis.get("loadItem"));
+        Assert.assertEquals(Long.valueOf(11L), millis.get("loop"));
+    }
+
+    @Test
+    public void testConcurrentAggregate() {
+        DefaultTraceRecoder recoder = new DefaultTraceRecoder(AsyncUtil.executorService, "fanOut", false);
+        for (int i = 0; i < 20; i++) {
+            recoder.async(() -> {
+            }, "fetch");
+        }
+        TaskStat stat = recoder.snapshot().getTaskStats().get("fetch(异步)");
+        Assert.assertEquals(20, stat.getCount());
+        int total = 0;
+        for (int c : stat.getHistogram()) {
+            total += c;
+        }
+        Assert.assertEquals(20, total);
+        // 不会再出现时间戳被当成耗时的情况
+        Assert.assertTrue(stat.getMax() < TimeUnit.SECONDS.toNanos(10));
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import com.github.liuyueyi.hhui.components.trace.async.AsyncUtil;
+import com.github.liuyueyi.hhui.components.trace.clock.FakeTraceClock;
+import com.github.liuyueyi.hhui.components.trace.output.CostOutput;
+import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 纳秒计时 + 可替换时钟
+ *
+ * @author YiHui
+ * @date 2024/9/1
+ */
+public class TraceClockTest {
+
+    @Test
+    public void testSubMillisCost() {
+        FakeTraceClock clock = new FakeTraceClock();
+        Map<String, Long> nanos = new HashMap<>();
+        Map<String, Long> legacy = new HashMap<>();
+        DefaultTraceRecoder recoder = new DefaultTraceRecoder(AsyncUtil.executorService, "clock", false, clock);
+        // 只实现了 output(Map, String) 的输出，拿到的是换算之后的 ms
+        recoder.addOutput((cost, traceName) -> legacy.putAll(cost));
+        recoder.addOutput(new RecordOutput(nanos));
+
+        recoder.sync(() -> clock.advance(300, TimeUnit.MICROSECONDS), "fast");
+        recoder.sync(() -> clock.advance(2, TimeUnit.MILLISECONDS), "slow");
+        Map<String, Long> millis = recoder.prettyPrint();
+
+        Assert.assertEquals(Long.valueOf(300_000L), nanos.get("fast"));
+        Assert.assertEquals(Long.valueOf(2_000_000L), nanos.get("slow"));
+        Assert.assertEquals(Long.valueOf(2_300_000L), nanos.get("clock"));
+        // 对外返回的依然是 ms
+        Assert.assertEquals(Long.valueOf(0L), millis.get("fast"));
+        Assert.assertEquals(Long.valueOf(2L), millis.get("slow"));
+        Assert.assertEquals(millis, legacy);
+    }
+
+    private static class RecordOutput implements CostOutput {
+        private final Map<String, Long> holder;
+
+        RecordOutput(Map<String, Long> holder) {
+            this.holder = holder;
+        }
+
+        @Override
+        public void output(Map<String, Long> cost, String traceName) {
+        }
+
+        @Override
+        public void outputNanos(Map<String, Long> cost, String traceName) {
+            holder.putAll(cost);
+        }
+    }
+}
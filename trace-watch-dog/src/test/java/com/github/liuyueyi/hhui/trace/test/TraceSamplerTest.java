@@ -0,0 +1,95 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.recoder.ITraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.recoder.NoopTraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.sample.DefaultTraceSampler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 采样策略
+ *
+ * @author YiHui
+ * @date 2024/9/10
+ */
+public class TraceSamplerTest {
+
+    @After
+    public void reset() {
+        TraceWatch.registerSampler(null);
+    }
+
+    @Test
+    public void testUnsampled() {
+        TraceWatch.registerSampler(new DefaultTraceSampler(1).setTraceRate("skip", 0));
+        ITraceRecoder first;
+        try (ITraceRecoder recoder = TraceWatch.startTrace("skip")) {
+            first = recoder;
+            Assert.assertTrue(recoder instanceof NoopTraceRecoder);
+            Assert.assertSame(recoder, TraceWatch.getRecoder());
+            // 异步任务依然在线程池中执行
+            String thread = recoder.async(() -> Thread.currentThread().getName(), "async").join();
+            Assert.assertTrue(thread.startsWith("trace-watch-dog-"));
+        }
+        Assert.assertNull(TraceWatch.getRecoder());
+
+        try (ITraceRecoder recoder = TraceWatch.startTrace("skip")) {
+            // 共用同一个实例
+            Assert.assertSame(first, recoder);
+        }
+
+        try (ITraceRecoder recoder = TraceWatch.startTrace("keep", false)) {
+            Assert.assertTrue(recoder instanceof DefaultTraceRecoder);
+        }
+    }
+
+    @Test
+    public void testUnsampledWithExecutorService() {
+        TraceWatch.registerSampler(new DefaultTraceSampler(1).setTraceRate("skip", 0));
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            ITraceRecoder first;
+            try (ITraceRecoder recoder = TraceWatch.startTrace(pool, "skip", false)) {
+                first = recoder;
+                Assert.assertTrue(recoder instanceof NoopTraceRecoder);
+            }
+            try (ITraceRecoder recoder = TraceWatch.startTrace(pool, "skip", false)) {
+                // 同一个线程池复用缓存的句柄，共用同一个实例
+                Assert.assertSame(first, recoder);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testMaxTracesPerSecond() {
+        DefaultTraceSampler sampler = new DefaultTraceSampler().setMaxTracesPerSecond(10);
+        int sampled = 0;
+        for (int i = 0; i < 100; i++) {
+            if (sampler.sample("limit")) {
+                sampled++;
+            }
+        }
+        // 允许一秒的突发量，测试执行期间可能会补充一两个令牌
+        Assert.assertTrue("sampled: " + sampled, sampled >= 10 && sampled <= 12);
+    }
+
+    @Test
+    public void testRate() {
+        DefaultTraceSampler sampler = new DefaultTraceSampler(0.1);
+        int sampled = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (sampler.sample("rate")) {
+                sampled++;
+            }
+        }
+        Assert.assertTrue("sampled: " + sampled, sampled > 500 && sampled < 1500);
+    }
+}
@@ -0,0 +1,123 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.output.StatisticsOutput;
+import com.github.liuyueyi.hhui.components.trace.recoder.ITraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.stat.LatencyRecorder;
+import com.github.liuyueyi.hhui.components.trace.stat.LatencySnapshot;
+import com.github.liuyueyi.hhui.components.trace.stat.TraceLatency;
+import com.github.liuyueyi.hhui.components.trace.stat.TraceStatistics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 跨请求的耗时统计
+ *
+ * @author YiHui
+ * @date 2024/9/12
+ */
+public class TraceStatisticsTest {
+
+    @After
+    public void reset() {
+        TraceWatch.getGlobalOutputStrategy().remove(StatisticsOutput.INSTANCE);
+        TraceStatistics.reset();
+    }
+
+    @Test
+    public void testPercentile() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        for (int i = 1; i <= 1000; i++) {
+            recorder.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        LatencySnapshot snapshot = recorder.snapshot();
+        Assert.assertEquals(1000, snapshot.getCount());
+        Assert.assertEquals(TimeUnit.MICROSECONDS.toNanos(1000), snapshot.getMax());
+        assertNear(TimeUnit.MICROSECONDS.toNanos(500), snapshot.getP50());
+        assertNear(TimeUnit.MICROSECONDS.toNanos(900), snapshot.getP90());
+        assertNear(TimeUnit.MICROSECONDS.toNanos(990), snapshot.getP99());
+        Assert.assertEquals(0, new LatencyRecorder().snapshot().getP99());
+
+        // 超出范围的耗时记录在最后一个桶中
+        recorder.record(Long.MAX_VALUE);
+        Assert.assertEquals(Long.MAX_VALUE, recorder.snapshot().getPercentile(1));
+    }
+
+    @Test
+    public void testOverflowBucket() {
+        // 可区分范围内的最大耗时与溢出的耗时不在同一个桶中
+        LatencyRecorder recorder = new LatencyRecorder();
+        long top = (1L << 41) - 1;
+        recorder.record(top);
+        recorder.record(1L << 50);
+        LatencySnapshot snapshot = recorder.snapshot();
+        Assert.assertEquals(top, snapshot.getP50());
+        Assert.assertEquals(1L << 50, snapshot.getPercentile(1));
+    }
+
+    private static void assertNear(long expect, long actual) {
+        // 取桶的上界，误差不超过 12.5%
+        Assert.assertTrue(expect + " -> " + actual, actual >= expect && actual <= expect * 1.125);
+    }
+
+    @Test
+    public void testConcurrentRecord() throws InterruptedException {
+        LatencyRecorder recorder = new LatencyRecorder();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    recorder.record(i);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(80_000, recorder.snapshot().getCount());
+        Assert.assertTrue(recorder.getStripeCount() <= 8);
+    }
+
+    @Test
+    public void testLazyStripes() {
+        // 没有竞争时只分配一个条带，大量低频的任务名不会各自占用全部条带
+        LatencyRecorder recorder = new LatencyRecorder();
+        for (int i = 0; i < 10_000; i++) {
+            recorder.record(i);
+        }
+        Assert.assertEquals(1, recorder.getStripeCount());
+        Assert.assertEquals(10_000, recorder.snapshot().getCount());
+        recorder.reset();
+        Assert.assertEquals(0, recorder.snapshot().getCount());
+    }
+
+    @Test
+    public void testStatisticsOutput() {
+        TraceWatch.registerOutput(StatisticsOutput.INSTANCE);
+        for (int i = 0; i < 20; i++) {
+            try (ITraceRecoder recoder = TraceWatch.startTrace("stat", false)) {
+                recoder.sync(() -> {
+                }, "a");
+                recoder.sync(() -> {
+                }, "a");
+                recoder.async(() -> {
+                }, "b");
+            }
+        }
+        TraceLatency latency = TraceStatistics.get("stat");
+        Assert.assertNotNull(latency);
+        Assert.assertEquals(20, latency.getTotal().getCount());
+        // 每次执行单独记录
+        Assert.assertEquals(40, latency.getTask("a").getCount());
+        Assert.assertEquals(20, latency.getTask("b(异步)").getCount());
+        Assert.assertEquals(2, latency.getTasks().size());
+        Assert.assertTrue(TraceStatistics.getTraceNames().contains("stat"));
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.output.StatisticsOutput;
+import com.github.liuyueyi.hhui.components.trace.recoder.ITraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.stat.TraceStatistics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+
+/**
+ * JMX 暴露耗时统计
+ *
+ * @author YiHui
+ * @date 2024/9/12
+ */
+public class TraceStatsJmxTest {
+
+    @After
+    public void reset() {
+        TraceWatch.enableJmx(false);
+        TraceStatistics.reset();
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        TraceWatch.enableJmx(true);
+        for (int i = 0; i < 5; i++) {
+            try (ITraceRecoder recoder = TraceWatch.startTrace("jmx:trace", false)) {
+                recoder.sync(() -> {
+                }, "task");
+            }
+        }
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = TraceStatistics.objectName("jmx:trace");
+        Assert.assertTrue(server.isRegistered(name));
+        Assert.assertEquals(5L, server.getAttribute(name, "Count"));
+        CompositeData latency = (CompositeData) server.getAttribute(name, "Latency");
+        Assert.assertEquals(5L, latency.get("count"));
+        Assert.assertTrue((Long) latency.get("p99") <= (Long) latency.get("max"));
+        TabularData tasks = (TabularData) server.getAttribute(name, "TaskLatencies");
+        Assert.assertEquals(1, tasks.size());
+        // 线程池等全局指标只在全局的 MBean 中暴露一份
+        ObjectName global = TraceStatistics.globalObjectName();
+        Assert.assertTrue(server.isRegistered(global));
+        Assert.assertNotNull(server.getAttribute(global, "CallerRunsCount"));
+        Assert.assertEquals(0L, server.getAttribute(global, "DroppedOutputCount"));
+
+        server.invoke(name, "reset", null, null);
+        Assert.assertEquals(0L, server.getAttribute(name, "Count"));
+
+        TraceWatch.enableJmx(false);
+        Assert.assertFalse(server.isRegistered(name));
+        Assert.assertFalse(server.isRegistered(global));
+    }
+
+    @Test
+    public void testKeepUserStatisticsOutput() {
+        // 使用方自行注册的统计输出，关闭 JMX 时不会被移除
+        TraceWatch.registerOutput(StatisticsOutput.INSTANCE);
+        try {
+            TraceWatch.enableJmx(true);
+            TraceWatch.enableJmx(false);
+            Assert.assertTrue(TraceWatch.getGlobalOutputStrategy().contains(StatisticsOutput.INSTANCE));
+        } finally {
+            TraceWatch.getGlobalOutputStrategy().remove(StatisticsOutput.INSTANCE);
+        }
+
+        TraceWatch.enableJmx(true);
+        Assert.assertTrue(TraceWatch.getGlobalOutputStrategy().contains(StatisticsOutput.INSTANCE));
+        TraceWatch.enableJmx(false);
+        Assert.assertFalse(TraceWatch.getGlobalOutputStrategy().contains(StatisticsOutput.INSTANCE));
+    }
+}
@@ -0,0 +1,175 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.recoder.ITraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.span.TaskStat;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSnapshot;
+import com.github.liuyueyi.hhui.components.trace.span.TraceSpan;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 等待异步任务超时
+ *
+ * @author YiHui
+ * @date 2024/9/9
+ */
+public class TraceTimeoutTest {
+
+    @After
+    public void reset() {
+        TraceWatch.setDefaultTimeout(null);
+    }
+
+    @Test
+    public void testAllExecutedTimeout() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+        DefaultTraceRecoder recoder = (DefaultTraceRecoder) TraceWatch.startTrace("timeout", false);
+        try {
+            recoder.sync(() -> {
+            }, "fast");
+            recoder.async(() -> {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    finished.countDown();
+                }
+            }, "hung");
+
+            long start = System.nanoTime();
+            recoder.allExecuted(Duration.ofMillis(50));
+            long wait = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Assert.assertTrue("wait " + wait, wait < 1000);
+            Assert.assertEquals(1, recoder.getTimeoutCount());
+
+            TraceSnapshot snapshot = recoder.snapshot();
+            TraceSpan hung = snapshot.getSpans().stream().filter(s -> s.getName().equals("hung(异步)")).findFirst().get();
+            Assert.assertTrue(hung.isTimeout());
+            long cost = hung.getCost();
+            Assert.assertTrue(cost > 0);
+            TaskStat stat = snapshot.getTaskStats().get("hung(异步)");
+            Assert.assertEquals(1, stat.getTimeoutCount());
+            Assert.assertEquals(0, snapshot.getTaskStats().get("fast").getTimeoutCount());
+
+            // 超时之后的结束不再记录
+            latch.countDown();
+            Assert.assertTrue(finished.await(1, TimeUnit.SECONDS));
+            Thread.sleep(10);
+            Assert.assertEquals(cost, recoder.snapshot().getSpans().stream()
+                    .filter(s -> s.getName().equals("hung(异步)")).findFirst().get().getCost());
+        } finally {
+            latch.countDown();
+            recoder.close();
+        }
+    }
+
+    @Test
+    public void testDefaultTimeout() {
+        TraceWatch.setDefaultTimeout(Duration.ofMillis(20));
+        CountDownLatch latch = new CountDownLatch(1);
+        DefaultTraceRecoder recoder;
+        try (ITraceRecoder trace = TraceWatch.startTrace("default-timeout", false)) {
+            recoder = (DefaultTraceRecoder) trace;
+            trace.async(() -> {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "hung");
+        } finally {
+            latch.countDown();
+        }
+        Assert.assertEquals(1, recoder.getTimeoutCount());
+
+        // 单个trace可以覆盖全局配置
+        try (ITraceRecoder trace = TraceWatch.startTrace("no-timeout", false)) {
+            recoder = ((DefaultTraceRecoder) trace).setTimeout(null);
+            trace.async(() -> {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "slow");
+        }
+        Assert.assertEquals(0, recoder.getTimeoutCount());
+    }
+
+    @Test(timeout = 10_000)
+    public void testJoinTaskRegisteredFromUntrackedThread() throws InterruptedException {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        CountDownLatch submitting = new CountDownLatch(1);
+        // 提交时先阻塞一段时间，模拟任务已经登记、但 future 还没有保存的窗口
+        ExecutorService slowSubmit = new AbstractExecutorService() {
+            @Override
+            public void execute(Runnable command) {
+                submitting.countDown();
+                sleep(50);
+                pool.execute(command);
+            }
+
+            @Override
+            public void shutdown() {
+                pool.shutdown();
+            }
+
+            @Override
+            public List<Runnable> shutdownNow() {
+                return pool.shutdownNow();
+            }
+
+            @Override
+            public boolean isShutdown() {
+                return pool.isShutdown();
+            }
+
+            @Override
+            public boolean isTerminated() {
+                return pool.isTerminated();
+            }
+
+            @Override
+            public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+                return pool.awaitTermination(timeout, unit);
+            }
+        };
+        try {
+            DefaultTraceRecoder recoder = new DefaultTraceRecoder(slowSubmit, "untracked", false);
+            // 在不属于这个trace的线程中提交异步任务，例如完成回调
+            Thread other = new Thread(() -> recoder.async(() -> sleep(50), "late"));
+            other.start();
+            submitting.await();
+
+            recoder.allExecuted();
+            Assert.assertEquals(0, recoder.getTimeoutCount());
+            TraceSpan late = recoder.snapshot().getSpans().stream()
+                    .filter(s -> s.getName().equals("late(异步)")).findFirst().orElse(null);
+            Assert.assertNotNull("allExecuted returned before the late task finished", late);
+            other.join();
+        } finally {
+            slowSubmit.shutdown();
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.liuyueyi.hhui.trace.test;
+
+import com.github.liuyueyi.hhui.components.trace.TraceWatch;
+import com.github.liuyueyi.hhui.components.trace.async.AsyncUtil;
+import com.github.liuyueyi.hhui.components.trace.mdc.MdcUtil;
+import com.github.liuyueyi.hhui.components.trace.recoder.DefaultTraceRecoder;
+import com.github.liuyueyi.hhui.components.trace.recoder.ITraceRecoder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 虚拟线程模式
+ *
+ * @author YiHui
+ * @date 2024/9/9
+ */
+public class VirtualThreadTest {
+
+    @Test
+    public void testVirtualTrace() throws Exception {
+        if (!AsyncUtil.isVirtualThreadSupported()) {
+            // 不支持虚拟线程时，退化为默认线程池
+            Assert.assertSame(AsyncUtil.traceExecutor, AsyncUtil.virtualTraceExecutor());
+        }
+
+        try (ITraceRecoder recoder = TraceWatch.startTrace("virtual", false, true)) {
+            String traceId = MdcUtil.fetchGlobalMsgIdForTraceRecoder();
+            List<CompletableFuture<String>> list = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                list.add(recoder.async(() -> {
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    Assert.assertSame(recoder, TraceWatch.getRecoder());
+                    return MdcUtil.fetchGlobalMsgIdForTraceRecoder();
+                }, "io-" + i));
+            }
+            recoder.allExecuted();
+            for (CompletableFuture<String> future : list) {
+                Assert.assertEquals(traceId, future.get());
+            }
+            Assert.assertEquals(201, ((DefaultTraceRecoder) recoder).snapshot().getSpans().size());
+        }
+    }
+
+    @Test
+    public void testVirtualThreadDefault() {
+        TraceWatch.enableVirtualThread(true);
+        try (ITraceRecoder recoder = TraceWatch.startTrace("virtual-default", false)) {
+            boolean virtual = recoder.async(() -> {
+                try {
+                    return (Boolean) Thread.class.getMethod("isVirtual").invoke(Thread.currentThread());
+                } catch (ReflectiveOperationException e) {
+                    return false;
+                }
+            }, "check").join();
+            Assert.assertEquals(AsyncUtil.isVirtualThreadSupported(), virtual);
+        } finally {
+            TraceWatch.enableVirtualThread(false);
+        }
+    }
+}